@@ -0,0 +1,80 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.writer.MarcXchangeV1Writer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Convert stage: turning a MarcRecord into the marcxchange DOM sent to updateservice.
+ * <p>
+ * {@link #writeAndReparse} is the original path, serializing with MarcXchangeV1Writer
+ * and parsing the bytes with a DocumentBuilder shared by all threads.
+ * {@link #directDom} builds the DOM straight from the record.
+ * Run with -t to see the effect of the shared parser under concurrency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+    @Param({"1000"})
+    public int records;
+
+    private List<MarcRecord> marcRecords;
+    private DocumentBuilder sharedDocumentBuilder;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final MarcXchangeDomConverter converter = new MarcXchangeDomConverter();
+        int next = 0;
+
+        MarcRecord nextRecord(List<MarcRecord> marcRecords) {
+            final MarcRecord marcRecord = marcRecords.get(next);
+            next = (next + 1) % marcRecords.size();
+            return marcRecord;
+        }
+    }
+
+    @Setup
+    public void setup() throws ParserConfigurationException {
+        marcRecords = Corpus.records(records);
+        sharedDocumentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    }
+
+    @Benchmark
+    public Document writeAndReparse(ThreadState state) throws SAXException, IOException {
+        final MarcXchangeV1Writer writer = new MarcXchangeV1Writer();
+        final byte[] bytes = writer.writeRecord(state.nextRecord(marcRecords), StandardCharsets.UTF_8);
+        synchronized (sharedDocumentBuilder) {
+            return sharedDocumentBuilder.parse(new ByteArrayInputStream(bytes));
+        }
+    }
+
+    @Benchmark
+    public Document directDom(ThreadState state) {
+        return state.converter.toDocument(state.nextRecord(marcRecords));
+    }
+}
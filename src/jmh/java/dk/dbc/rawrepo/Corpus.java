@@ -0,0 +1,161 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.reader.Iso2709Reader;
+import dk.dbc.marc.reader.LineFormatReader;
+import dk.dbc.marc.reader.MarcReader;
+import dk.dbc.marc.reader.MarcReaderException;
+import dk.dbc.marc.reader.MarcXchangeV1Reader;
+import dk.dbc.marc.writer.LineFormatWriter;
+import dk.dbc.marc.writer.MarcWriterException;
+import org.w3c.dom.Document;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates synthetic corpora of danMARC2 records for the benchmarks.
+ * <p>
+ * ISO2709 is produced byte by byte, the other formats are produced from the
+ * records parsed back from the ISO2709 corpus, so all formats hold the same data.
+ */
+final class Corpus {
+    private static final byte FIELD_TERMINATOR = 0x1E;
+    private static final byte RECORD_TERMINATOR = 0x1D;
+    private static final char SUBFIELD_DELIMITER = 0x1F;
+
+    private Corpus() {}
+
+    static byte[] generate(MarcFormatDeducer.FORMAT format, int records) {
+        switch (format) {
+            case LINE:
+                return line(records);
+            case MARCXCHANGE:
+                return marcXchange(records);
+            case ISO2709:
+                return iso2709(records);
+            default:
+                throw new IllegalArgumentException("Unsupported format " + format);
+        }
+    }
+
+    static MarcReader reader(MarcFormatDeducer.FORMAT format, InputStream is) throws MarcReaderException {
+        switch (format) {
+            case LINE:
+                return new LineFormatReader(is, StandardCharsets.UTF_8);
+            case MARCXCHANGE:
+                return new MarcXchangeV1Reader(is, StandardCharsets.UTF_8);
+            default:
+                return new Iso2709Reader(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    static List<MarcRecord> records(int records) {
+        try {
+            final List<MarcRecord> result = new ArrayList<>(records);
+            final MarcReader reader = new Iso2709Reader(new ByteArrayInputStream(iso2709(records)), StandardCharsets.UTF_8);
+            MarcRecord marcRecord = reader.read();
+            while (marcRecord != null) {
+                result.add(marcRecord);
+                marcRecord = reader.read();
+            }
+            return result;
+        } catch (MarcReaderException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] iso2709(int records) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < records; i++) {
+            final byte[] record = iso2709Record(i);
+            out.write(record, 0, record.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] line(int records) {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final LineFormatWriter writer = new LineFormatWriter();
+            for (MarcRecord marcRecord : records(records)) {
+                out.write(writer.write(marcRecord, StandardCharsets.UTF_8));
+            }
+            return out.toByteArray();
+        } catch (MarcWriterException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] marcXchange(int records) {
+        try {
+            final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            final MarcXchangeDomConverter converter = new MarcXchangeDomConverter();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<marcx:collection xmlns:marcx=\""
+                    + MarcXchangeDomConverter.NAMESPACE + "\">\n").getBytes(StandardCharsets.UTF_8));
+            for (MarcRecord marcRecord : records(records)) {
+                final Document document = converter.toDocument(marcRecord);
+                transformer.transform(new DOMSource(document), new StreamResult(out));
+                out.write('\n');
+            }
+            out.write("</marcx:collection>\n".getBytes(StandardCharsets.UTF_8));
+            return out.toByteArray();
+        } catch (TransformerException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] iso2709Record(int ordinal) {
+        final String[][] fields = {
+                {"001", "00" + SUBFIELD_DELIMITER + "a" + String.format("%08d", ordinal)
+                        + SUBFIELD_DELIMITER + "b" + (ordinal % 3 == 0 ? "870970" : "710100")
+                        + SUBFIELD_DELIMITER + "c20240101" + SUBFIELD_DELIMITER + "fa"},
+                {"004", "00" + SUBFIELD_DELIMITER + "rn" + SUBFIELD_DELIMITER + "ae"},
+                {"100", "00" + SUBFIELD_DELIMITER + "aAuthor" + SUBFIELD_DELIMITER + "hNumber " + ordinal},
+                {"245", "00" + SUBFIELD_DELIMITER + "aTitle number " + ordinal + " \u00e6\u00f8\u00e5"},
+                {"520", "00" + SUBFIELD_DELIMITER + "a" + "Lorem ipsum dolor sit amet, consectetur adipiscing elit. "
+                        + "Sed do eiusmod tempor incididunt ut labore et dolore magna aliqua."},
+                {"652", "00" + SUBFIELD_DELIMITER + "m" + (ordinal % 100)}
+        };
+
+        final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (String[] field : fields) {
+            final byte[] bytes = field[1].getBytes(StandardCharsets.UTF_8);
+            final String entry = String.format("%s%04d%05d", field[0], bytes.length + 1, data.size());
+            directory.write(entry.getBytes(StandardCharsets.US_ASCII), 0, entry.length());
+            data.write(bytes, 0, bytes.length);
+            data.write(FIELD_TERMINATOR);
+        }
+        directory.write(FIELD_TERMINATOR);
+
+        final int baseAddress = 24 + directory.size();
+        final int recordLength = baseAddress + data.size() + 1;
+        final String leader = String.format("%05dnam  22%05d   4500", recordLength, baseAddress);
+
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(recordLength);
+        record.write(leader.getBytes(StandardCharsets.US_ASCII), 0, leader.length());
+        record.write(directory.toByteArray(), 0, directory.size());
+        record.write(data.toByteArray(), 0, data.size());
+        record.write(RECORD_TERMINATOR);
+        return record.toByteArray();
+    }
+}
@@ -0,0 +1,54 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.rawrepo.bindings.BibliographicRecordExtraData;
+import dk.dbc.rawrepo.bindings.BibliographicRecordExtraDataCache;
+import dk.dbc.rawrepo.bindings.BibliographicRecordExtraDataMarshaller;
+import jakarta.xml.bind.JAXBException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build stage: producing the updateRecordExtraData element added to every request.
+ * <p>
+ * {@link #marshalPerRecord} is the original path, marshalling for every record
+ * while holding a lock on a shared marshaller.
+ * {@link #cached} uses the per (provider, priority) cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtraDataBenchmark {
+    private static final String PROVIDER = "benchmark-provider";
+    private static final Integer PRIORITY = 1000;
+
+    private final BibliographicRecordExtraDataMarshaller marshaller = new BibliographicRecordExtraDataMarshaller();
+    private final BibliographicRecordExtraDataCache cache = new BibliographicRecordExtraDataCache();
+
+    @Benchmark
+    public Element marshalPerRecord() throws JAXBException {
+        final BibliographicRecordExtraData data = new BibliographicRecordExtraData();
+        data.setProviderName(PROVIDER);
+        data.setPriority(PRIORITY);
+        synchronized (marshaller) {
+            return marshaller.toXmlDocument(data).getDocumentElement();
+        }
+    }
+
+    @Benchmark
+    public Element cached() throws JAXBException {
+        return cache.get(PROVIDER, PRIORITY);
+    }
+}
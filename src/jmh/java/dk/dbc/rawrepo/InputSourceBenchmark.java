@@ -0,0 +1,152 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.reader.MarcReader;
+import dk.dbc.marc.reader.MarcReaderException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Input stage: reading a large generated ISO2709 file from disk.
+ * <p>
+ * {@code STREAM} is the original path, an unbuffered FileInputStream behind the pushback
+ * buffer used for format deduction. {@code BUFFERED} adds a 1 MiB buffer and {@code MAPPED}
+ * uses {@link MappedFileInputStream}. {@link #scan} only moves the bytes, {@link #parse}
+ * also parses the records. The {@code megabytes} counter gives the read rate in MB/s.
+ * <p>
+ * {@code GZIP} reads a gzip compressed copy of the file, inflating on the reading thread, and
+ * {@code GZIP_READ_AHEAD} reads it through {@link CompressedInput}, inflating on a separate thread.
+ * For those the {@code megabytes} counter still counts the uncompressed bytes.
+ * <p>
+ * The file is written to java.io.tmpdir, so make sure there is room for it, and use
+ * {@code -p sizeMb=...} to measure files larger than the page cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class InputSourceBenchmark {
+    private static final int PUSHBACK_BUFFER_SIZE = 1000;
+    private static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+
+    @Param({"STREAM", "BUFFERED", "MAPPED", "GZIP", "GZIP_READ_AHEAD"})
+    public String source;
+
+    @Param({"2048"})
+    public int sizeMb;
+
+    private Path file;
+    private long fileSize;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Megabytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Files.createTempFile("rrupdate-input-", ".iso");
+        final byte[] chunk = Corpus.iso2709(10000);
+        final long target = sizeMb * 1024L * 1024L;
+        try (OutputStream os = Files.newOutputStream(file)) {
+            for (long written = 0; written < target; written += chunk.length) {
+                os.write(chunk);
+            }
+        }
+        fileSize = Files.size(file);
+        if (source.startsWith("GZIP")) {
+            final Path compressed = Files.createTempFile("rrupdate-input-", ".iso.gz");
+            try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(compressed), INPUT_BUFFER_SIZE)) {
+                Files.copy(file, os);
+            }
+            Files.delete(file);
+            file = compressed;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long scan(Megabytes counter) throws IOException {
+        final byte[] buffer = new byte[8192];
+        long total = 0;
+        try (InputStream is = open()) {
+            int count;
+            while ((count = is.read(buffer)) >= 0) {
+                total += count;
+            }
+        }
+        counter.megabytes += fileSize / 1e6;
+        return total;
+    }
+
+    @Benchmark
+    public int parse(Megabytes counter, Blackhole blackhole) throws IOException, MarcReaderException {
+        int count = 0;
+        try (InputStream is = open()) {
+            final MarcReader reader = Corpus.reader(MarcFormatDeducer.FORMAT.ISO2709, is);
+            MarcRecord marcRecord = reader.read();
+            while (marcRecord != null) {
+                blackhole.consume(marcRecord);
+                count++;
+                marcRecord = reader.read();
+            }
+        }
+        counter.megabytes += fileSize / 1e6;
+        return count;
+    }
+
+    private InputStream open() throws IOException {
+        switch (source) {
+            case "STREAM":
+                return new PushbackInputStream(new FileInputStream(file.toFile()), PUSHBACK_BUFFER_SIZE);
+            case "BUFFERED":
+                return new PushbackInputStream(new BufferedInputStream(
+                        new FileInputStream(file.toFile()), INPUT_BUFFER_SIZE), PUSHBACK_BUFFER_SIZE);
+            case "GZIP":
+                return new PushbackInputStream(new GZIPInputStream(
+                        new MappedFileInputStream(file), 64 * 1024), PUSHBACK_BUFFER_SIZE);
+            case "GZIP_READ_AHEAD":
+                return new PushbackInputStream(CompressedInput.decompress(
+                        new MappedFileInputStream(file)), PUSHBACK_BUFFER_SIZE);
+            default:
+                return new PushbackInputStream(new MappedFileInputStream(file), PUSHBACK_BUFFER_SIZE);
+        }
+    }
+}
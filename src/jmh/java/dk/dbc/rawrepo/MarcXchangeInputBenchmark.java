@@ -0,0 +1,74 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.reader.MarcReader;
+import dk.dbc.marc.reader.MarcReaderException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read and convert stages for marcxchange input: from the bytes of a collection to the DOM of every record.
+ * <p>
+ * {@link #readAndConvert} is the original path, reading MarcRecords with MarcXchangeV1Reader and
+ * converting them with {@link MarcXchangeDomConverter#toDocument}. {@link #splitAndParse} cuts
+ * the records out with {@link MarcXchangeSplitter} and parses the bytes of each record.
+ * Run with -prof gc to compare the allocation per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarcXchangeInputBenchmark {
+    @Param({"10000"})
+    public int records;
+
+    private byte[] corpus;
+    private final MarcXchangeDomConverter converter = new MarcXchangeDomConverter();
+
+    @Setup
+    public void setup() {
+        corpus = Corpus.generate(MarcFormatDeducer.FORMAT.MARCXCHANGE, records);
+    }
+
+    @Benchmark
+    public int readAndConvert(Blackhole blackhole) throws MarcReaderException {
+        final MarcReader reader = Corpus.reader(MarcFormatDeducer.FORMAT.MARCXCHANGE, new ByteArrayInputStream(corpus));
+        int count = 0;
+        MarcRecord marcRecord = reader.read();
+        while (marcRecord != null) {
+            blackhole.consume(converter.toDocument(marcRecord));
+            count++;
+            marcRecord = reader.read();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int splitAndParse(Blackhole blackhole) throws MarcReaderException {
+        final MarcXchangeSplitter splitter = new MarcXchangeSplitter(new ByteArrayInputStream(corpus), StandardCharsets.UTF_8);
+        final AtomicInteger ordinals = new AtomicInteger(0);
+        InputRecord inputRecord = splitter.read(ordinals::incrementAndGet);
+        while (inputRecord != null) {
+            blackhole.consume(converter.parse(inputRecord.getMarcXchange()));
+            inputRecord = splitter.read(ordinals::incrementAndGet);
+        }
+        return ordinals.get();
+    }
+}
@@ -0,0 +1,67 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.reader.MarcReaderException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read stage: parsing an ISO2709 corpus with {@link ParallelIso2709Reader}.
+ * <p>
+ * Compare with the ISO2709 result of {@link ReaderBenchmark} for the single threaded reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelReaderBenchmark {
+    @Param({"2", "4", "8"})
+    public int threads;
+
+    @Param({"true", "false"})
+    public boolean ordered;
+
+    @Param({"100000"})
+    public int records;
+
+    private byte[] corpus;
+
+    @Setup
+    public void setup() {
+        corpus = Corpus.iso2709(records);
+    }
+
+    @Benchmark
+    public int readCorpus(Blackhole blackhole) throws MarcReaderException {
+        final ParallelIso2709Reader reader = new ParallelIso2709Reader(
+                new ByteArrayInputStream(corpus), StandardCharsets.UTF_8, threads, ordered);
+        try {
+            int count = 0;
+            MarcRecord marcRecord = reader.read();
+            while (marcRecord != null) {
+                blackhole.consume(marcRecord);
+                count++;
+                marcRecord = reader.read();
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.reader.MarcReader;
+import dk.dbc.marc.reader.MarcReaderException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read stage: parsing a whole corpus with the MarcReader matching its format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReaderBenchmark {
+    @Param({"ISO2709", "LINE", "MARCXCHANGE"})
+    public String format;
+
+    @Param({"10000"})
+    public int records;
+
+    private MarcFormatDeducer.FORMAT marcFormat;
+    private byte[] corpus;
+
+    @Setup
+    public void setup() {
+        marcFormat = MarcFormatDeducer.FORMAT.valueOf(format);
+        corpus = Corpus.generate(marcFormat, records);
+    }
+
+    @Benchmark
+    public int readCorpus(Blackhole blackhole) throws MarcReaderException {
+        final MarcReader reader = Corpus.reader(marcFormat, new ByteArrayInputStream(corpus));
+        int count = 0;
+        MarcRecord marcRecord = reader.read();
+        while (marcRecord != null) {
+            blackhole.consume(marcRecord);
+            count++;
+            marcRecord = reader.read();
+        }
+        return count;
+    }
+}
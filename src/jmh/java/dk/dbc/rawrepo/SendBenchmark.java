@@ -0,0 +1,98 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.reader.Iso2709Reader;
+import dk.dbc.marc.reader.MarcReaderException;
+import dk.dbc.oss.ns.catalogingupdate.BibliographicRecord;
+import dk.dbc.oss.ns.catalogingupdate.ExtraRecordData;
+import dk.dbc.oss.ns.catalogingupdate.RecordData;
+import dk.dbc.oss.ns.catalogingupdate.UpdateRecordResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Send stage and end-to-end runs against an in-process updateservice stub.
+ * <p>
+ * {@link #updateRecord} measures a single SOAP call through UpdateServiceConnector.
+ * {@link #endToEnd} pushes a whole ISO2709 corpus through UpdateServiceHandler.
+ * With a mean latency the stub answers slowly and unevenly, which is where the
+ * dispatching of UpdateServiceHandler matters more than the cost of a call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendBenchmark {
+    @Param({"1000"})
+    public int records;
+
+    @Param({"8"})
+    public int concurrency;
+
+    @Param({"0"})
+    public int meanLatencyMillis;
+
+    private final StubCatalogingUpdateService stub = new StubCatalogingUpdateService();
+    private String endpoint;
+    private byte[] corpus;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        UpdateServiceConnector connector;
+        BibliographicRecord bibliographicRecord;
+
+        @Setup
+        public void setup(SendBenchmark benchmark) {
+            connector = new UpdateServiceConnector(benchmark.endpoint, "netpunkt", "not-used", true);
+            final RecordData recordData = new RecordData();
+            recordData.getContent().add(new MarcXchangeDomConverter()
+                    .toDocument(Corpus.records(1).get(0)).getDocumentElement());
+            bibliographicRecord = new BibliographicRecord();
+            bibliographicRecord.setRecordSchema("info:lc/xmlns/marcxchange-v1");
+            bibliographicRecord.setRecordPacking("xml");
+            bibliographicRecord.setRecordData(recordData);
+            bibliographicRecord.setExtraRecordData(new ExtraRecordData());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        endpoint = stub.withLatency(meanLatencyMillis).publish();
+        corpus = Corpus.iso2709(records);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public UpdateRecordResult updateRecord(ThreadState state) {
+        return state.connector.updateRecord("010100", "dbc", state.bibliographicRecord, null);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void endToEnd() throws MarcReaderException {
+        final UpdateServiceHandler handler = new UpdateServiceHandler("netpunkt", "010100", "not-used",
+                "dbc", null, 1000, null, true, -1, Collections.singletonList(endpoint), ConcurrencyLimiter.fixed(concurrency));
+        handler.run(new Iso2709Reader(new ByteArrayInputStream(corpus), StandardCharsets.UTF_8));
+    }
+}
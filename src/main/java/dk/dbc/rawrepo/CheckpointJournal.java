@@ -0,0 +1,231 @@
+package dk.dbc.rawrepo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal of completed records, used to resume an interrupted run.
+ * <p>
+ * Every completed record is journaled as a line holding its 1-based ordinal in the input,
+ * its 001 *a:*b id and the outcome (OK or FAILED), separated by tabs.
+ * Entries are buffered and forced to disk in batches of {@link #SYNC_BATCH_SIZE}, so a crash
+ * loses at most the batches being written. The records in those are simply sent again on resume.
+ * <p>
+ * When resuming, the existing journal is read into a bitmap of successful ordinals
+ * together with a hash of their ids, so that a record can be skipped without being
+ * converted or sent, and a changed input file is detected.
+ * <p>
+ * Instances of this class are thread safe. The buffer and the file are guarded by separate
+ * {@link ReentrantLock}s, so that a worker never waits for another worker forcing a batch to disk,
+ * and a virtual thread doing so does not pin its carrier thread.
+ */
+public class CheckpointJournal implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CheckpointJournal.class);
+
+    static final int SYNC_BATCH_SIZE = 100;
+
+    public enum Outcome {
+        OK,
+        FAILED
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final BitSet completed = new BitSet();
+    private int[] idHashes = new int[0];
+    private int completedCount = 0;
+
+    // Guards the pending entries
+    private final ReentrantLock lock = new ReentrantLock();
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingCount = 0;
+
+    // Guards the channel
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private CheckpointJournal(Path path, boolean resume) throws IOException {
+        this.path = path;
+        if (resume) {
+            load();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            terminateTornLine();
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+    }
+
+    /**
+     * Opens a journal
+     * @param path journal file
+     * @param resume if true, existing entries are loaded and new entries are appended,
+     *               otherwise the journal file must not exist
+     * @return journal
+     * @throws IOException if the journal could not be opened or read
+     */
+    public static CheckpointJournal open(Path path, boolean resume) throws IOException {
+        return new CheckpointJournal(path, resume);
+    }
+
+    /**
+     * @return number of successful records found in the journal when it was opened
+     */
+    public int getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Tells whether a record was successfully processed by a previous run
+     * @param ordinal 1-based position of the record in the input
+     * @param recordId id of the record at that position in the current input
+     * @return true if the record can be skipped
+     * @throws IllegalStateException if the journal holds a different record at this position
+     */
+    public boolean isCompleted(int ordinal, RecordId recordId) throws IllegalStateException {
+        // The loaded entries are never changed after the journal is opened, so no locking is needed
+        if (!completed.get(ordinal)) {
+            return false;
+        }
+        if (idHashes[ordinal] != recordId.toString().hashCode()) {
+            throw new IllegalStateException(String.format(
+                    "Record %d in the input is '%s' which does not match the checkpoint journal %s. " +
+                            "Has the input changed since the journal was written?", ordinal, recordId, path));
+        }
+        return true;
+    }
+
+    /**
+     * Journals the outcome of a record
+     * @param ordinal 1-based position of the record in the input
+     * @param recordId id of the record
+     * @param outcome outcome of the record
+     */
+    public void record(int ordinal, RecordId recordId, Outcome outcome) {
+        String batch = null;
+        lock.lock();
+        try {
+            pending.append(ordinal).append('\t').append(recordId).append('\t').append(outcome).append('\n');
+            if (++pendingCount >= SYNC_BATCH_SIZE) {
+                batch = takePending();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            write(batch);
+        }
+    }
+
+    /**
+     * Writes and forces all pending entries to disk
+     */
+    public void sync() {
+        final String batch;
+        lock.lock();
+        try {
+            batch = takePending();
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            write(batch);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            writeLock.lock();
+            try {
+                channel.close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // Must be called holding the lock
+    private String takePending() {
+        if (pendingCount == 0) {
+            return null;
+        }
+        final String batch = pending.toString();
+        pending.setLength(0);
+        pendingCount = 0;
+        return batch;
+    }
+
+    private void write(String batch) {
+        writeLock.lock();
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write checkpoint journal " + path, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void terminateTornLine() throws IOException {
+        final long size = channel.size();
+        if (size > 0) {
+            final ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n') {
+                channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(path)) {
+            LOGGER.info("Checkpoint journal {} does not exist, starting from the beginning", path);
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                final String[] entry = line.split("\t");
+                if (entry.length != 3 || !entry[0].matches("[0-9]{1,9}")) {
+                    // Most likely the tail of a batch that was cut short by a crash
+                    LOGGER.warn("Ignoring malformed line {} in checkpoint journal {}", lineNumber, path);
+                    continue;
+                }
+                if (Outcome.OK.name().equals(entry[2])) {
+                    final int ordinal = Integer.parseInt(entry[0]);
+                    if (ordinal >= idHashes.length) {
+                        idHashes = Arrays.copyOf(idHashes, Math.max(ordinal + 1, idHashes.length * 2));
+                    }
+                    if (!completed.get(ordinal)) {
+                        completed.set(ordinal);
+                        completedCount++;
+                    }
+                    idHashes[ordinal] = entry[1].hashCode();
+                }
+            }
+        }
+        LOGGER.info("Checkpoint journal {} holds {} successful records", path, completedCount);
+    }
+}
@@ -0,0 +1,204 @@
+package dk.dbc.rawrepo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Circuit breaker pausing all calls to updateservice while it is unavailable.
+ * <p>
+ * The breaker opens after a number of consecutive transport failures. While it is open
+ * {@link #awaitClosed()} blocks every caller, so records are held instead of failed.
+ * One of the waiting threads probes the service with a cheap call every probe interval,
+ * and the breaker closes again, releasing all waiting threads, as soon as a probe succeeds.
+ * <p>
+ * If the breaker has been open for longer than the max open time, it stops holding calls:
+ * {@link #awaitClosed()} returns at once, so the held records are sent, fail and count
+ * towards the error limit, and a wrong url or a service which stays down does not stall the job forever.
+ * The breaker still closes when a call succeeds.
+ * Instances of this class are thread safe.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * Cheap call telling whether the service is available
+     */
+    public interface Probe {
+        /**
+         * @throws Exception if the service is still unavailable
+         */
+        void probe() throws Exception;
+    }
+
+    private final int failureThreshold;
+    private final long probeIntervalNanos;
+    private final long maxOpenNanos;
+    private final Probe probe;
+    // Virtual threads may wait here, so no synchronized/wait() (see ConcurrencyLimiter)
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+
+    private int consecutiveFailures = 0;
+    private boolean open = false;
+    private boolean probing = false;
+    private long openedAt;
+    private long nextProbeAt;
+    private boolean expired = false;
+    private int openCount = 0;
+
+    /**
+     * @param failureThreshold number of consecutive transport failures opening the breaker
+     * @param probeIntervalMillis time between probes while the breaker is open
+     * @param maxOpenMillis time after which the breaker stops holding calls, 0 to hold them until the service is back
+     * @param probe call used to tell whether the service is available again
+     */
+    public CircuitBreaker(int failureThreshold, long probeIntervalMillis, long maxOpenMillis, Probe probe) {
+        this.failureThreshold = failureThreshold;
+        this.probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis);
+        this.maxOpenNanos = TimeUnit.MILLISECONDS.toNanos(maxOpenMillis);
+        this.probe = probe;
+    }
+
+    /**
+     * Blocks while the breaker is open, but no longer than the max open time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitClosed() throws InterruptedException {
+        while (true) {
+            lock.lockInterruptibly();
+            try {
+                while (isHolding() && (probing || System.nanoTime() < nextProbeAt)) {
+                    if (maxOpenNanos > 0) {
+                        // Wake up in time to stop holding
+                        final long expiresAt = openedAt + maxOpenNanos;
+                        final long wakeUpAt = probing || expiresAt - nextProbeAt < 0 ? expiresAt : nextProbeAt;
+                        stateChanged.awaitNanos(wakeUpAt - System.nanoTime());
+                    } else if (probing) {
+                        stateChanged.await();
+                    } else {
+                        stateChanged.awaitNanos(nextProbeAt - System.nanoTime());
+                    }
+                }
+                if (!isHolding()) {
+                    return;
+                }
+                probing = true;
+            } finally {
+                lock.unlock();
+            }
+            boolean available = false;
+            try {
+                probe.probe();
+                available = true;
+            } catch (Exception e) {
+                LOGGER.debug("Probe failed: {}", e.toString());
+            } finally {
+                lock.lock();
+                try {
+                    probing = false;
+                    if (available && open) {
+                        close();
+                    } else {
+                        nextProbeAt = System.nanoTime() + probeIntervalNanos;
+                    }
+                    stateChanged.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a call which reached the service
+     */
+    public void recordSuccess() {
+        lock.lock();
+        try {
+            consecutiveFailures = 0;
+            if (open) {
+                // Only reached once the breaker has stopped holding calls
+                close();
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a call which failed because the service could not be reached or was unavailable
+     */
+    public void recordFailure() {
+        lock.lock();
+        try {
+            consecutiveFailures++;
+            if (!open && consecutiveFailures >= failureThreshold) {
+                open = true;
+                expired = false;
+                openCount++;
+                openedAt = System.nanoTime();
+                nextProbeAt = openedAt + probeIntervalNanos;
+                LOGGER.warn("updateservice looks unavailable after {} consecutive failures, " +
+                        "pausing until it responds again", consecutiveFailures);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return open;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the breaker is open and still holds calls,
+     * i.e. it has not been open for longer than the max open time
+     */
+    public boolean isHolding() {
+        lock.lock();
+        try {
+            if (!open || expired) {
+                return false;
+            }
+            if (maxOpenNanos > 0 && System.nanoTime() - openedAt >= maxOpenNanos) {
+                expired = true;
+                LOGGER.error("updateservice has been unavailable for {} s, no longer holding records",
+                        TimeUnit.NANOSECONDS.toSeconds(maxOpenNanos));
+                stateChanged.signalAll();
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of times the breaker has opened
+     */
+    public int getOpenCount() {
+        lock.lock();
+        try {
+            return openCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close() {
+        open = false;
+        consecutiveFailures = 0;
+        LOGGER.info("updateservice responds again after {} s, resuming",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - openedAt));
+    }
+}
@@ -43,15 +43,258 @@ public class Cli {
                 .setDefault(1000)
                 .type(Integer.class)
                 .help("The priority to use when calling update. Default '1000'.\n" +
-                        "WARNING: Setting priority to 500 or lower will most likely affect DBCkat/Cicero.");
+                        "WARNING: Setting priority to 500 or lower will most likely affect DBCkat/Cicero, \n" +
+                        "consider limiting the load with --max-rps or --max-in-flight.");
 
         parser.addArgument("-po", "--provider")
                 .help("Override provider to use when calling update. If not defined updateservice chooses the provider.");
 
+        parser.addArgument("--routing")
+                .metavar("FILE")
+                .help("Choose template, provider and priority per record from the rules in FILE, \n" +
+                        "so that e.g. common and local records can be sent in one job. A rule per line like \n" +
+                        "'001b=870970 -> template=dbc provider=my-provider priority=1000'. The left side are --select \n" +
+                        "expressions, or * for all records, and the first matching rule applies. \n" +
+                        "Settings left out, and records matching no rule, use --template, --provider and --priority.");
+
         parser.addArgument("-u", "--url")
                 .required(true)
                 .help("Url of the update service of the destination rawrepo. \n" +
-                        "E.g. http://oss-services.dbc.dk/UpdateService/2.0");
+                        "E.g. http://oss-services.dbc.dk/UpdateService/2.0 \n" +
+                        "Several instances of updateservice can be given separated by commas, and each call then goes \n" +
+                        "to the instance with the fewest calls in flight.");
+
+        parser.addArgument("-c", "--concurrency")
+                .setDefault(8)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("CONCURRENCY")
+                .help("The number of records sent to updateservice concurrently. Default 8.\n" +
+                        "With --adaptive-concurrency this is the starting point.");
+
+        parser.addArgument("--adaptive-concurrency")
+                .action(Arguments.storeTrue())
+                .help("Continuously adjust the number of concurrent calls to updateservice. \n" +
+                        "Concurrency grows while the response time stays flat and shrinks when it rises or calls fail.");
+
+        parser.addArgument("--max-concurrency")
+                .setDefault(64)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("MAX_CONCURRENCY")
+                .help("Upper bound on the number of concurrent calls when using --adaptive-concurrency. Default 64.");
+
+        parser.addArgument("--virtual-threads")
+                .action(Arguments.storeTrue())
+                .help("Run the calls to updateservice on virtual threads, which makes a high --concurrency cheap. \n" +
+                        "Requires Java 21 or later.");
+
+        parser.addArgument("--max-rps")
+                .setDefault(0.0)
+                .type(Double.class)
+                .choices(Arguments.range(0.0, Double.MAX_VALUE))
+                .metavar("REQUESTS")
+                .help("Max number of records sent to updateservice per second, \n" +
+                        "to keep the queue of rawrepo from growing faster than it is emptied. 0 means no limit. Default 0.");
+
+        parser.addArgument("--max-in-flight")
+                .setDefault(0)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("CALLS")
+                .help("Max number of calls to updateservice in flight, regardless of --concurrency. \n" +
+                        "0 means no limit. Default 0.");
+
+        parser.addArgument("--rate-schedule")
+                .metavar("SCHEDULE")
+                .help("Use other limits than --max-rps and --max-in-flight at certain times, \n" +
+                        "as a comma separated list of windows like '[DAYS ]HH:MM-HH:MM=REQUESTS[/CALLS]'. \n" +
+                        "E.g. 'mon-fri 08:00-17:00=10/2' limits the job to 10 records per second and 2 calls in flight \n" +
+                        "during office hours. A window ending before it starts runs past midnight, 0 means no limit, \n" +
+                        "and the first window containing the current time applies.");
+
+        parser.addArgument("--read-threads")
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("READ_THREADS")
+                .help("The number of threads parsing ISO2709 input. Default 1. \n" +
+                        "Other input formats are always parsed by a single thread.");
+
+        parser.addArgument("--unordered")
+                .action(Arguments.storeTrue())
+                .help("With --read-threads, send records as soon as they are parsed instead of in input order. \n" +
+                        "Can't be combined with --checkpoint or --dedupe.");
+
+        parser.addArgument("--file-readers")
+                .setDefault(1)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("FILE_READERS")
+                .help("The number of input files read concurrently. Default 1, reading the files one after the other. \n" +
+                        "Can't be combined with --checkpoint or --dedupe.");
+
+        parser.addArgument("--keep-related-order")
+                .action(Arguments.storeTrue())
+                .help("Send records sharing a head (014 *a) or a record id (001 *a) one at a time in input order, \n" +
+                        "so that e.g. a volume is never sent before its head. Unrelated records are still sent concurrently. \n" +
+                        "A head must come before its volumes in the input. Can't be combined with --unordered or --file-readers. \n" +
+                        "The heads of the last 100000 sections and volumes are remembered, about 20 MB.");
+
+        parser.addArgument("--dedupe")
+                .choices("first", "last")
+                .help("Send only the first or the last record of each record id (001 *a:*b) in the input. \n" +
+                        "The input is read twice, first to find the duplicates and then to send the records, \n" +
+                        "so it can't be standard input.");
+
+        parser.addArgument("--checkpoint")
+                .metavar("FILE")
+                .help("Journal the outcome of every record to FILE, so that an interrupted job can be resumed. \n" +
+                        "The file must not exist unless --resume is given.");
+
+        parser.addArgument("--resume")
+                .action(Arguments.storeTrue())
+                .help("Resume an interrupted job from the --checkpoint journal. \n" +
+                        "Records already updated with success are skipped, all other records are sent again. \n" +
+                        "The input must be the same as in the interrupted job.");
+
+        parser.addArgument("--failed-out")
+                .metavar("FILE")
+                .help("Write every record which could not be updated to FILE, in the same format as the input. \n" +
+                        "The reason for each failure is written to FILE.reasons. \n" +
+                        "FILE can be given as input to a later job which then only retries the failed records.");
+
+        parser.addArgument("--select")
+                .action(Arguments.append())
+                .metavar("EXPRESSION")
+                .help("Only send records matching EXPRESSION, e.g. '001b=870970'. Can be given several times, \n" +
+                        "in which case a record must match all of them. EXPRESSION is TAGc=VALUE, TAGc!=VALUE \n" +
+                        "or TAGc~REGEX, where c is a subfield code. Without the subfield code the data of a control field is matched.");
+
+        parser.addArgument("--rejected-out")
+                .metavar("FILE")
+                .help("Write every record which is not sent because it failed the local checks, e.g. of 001 *a and *b, \n" +
+                        "or didn't match --select to FILE, in the same format as the input. \n" +
+                        "The reason for each record is written to FILE.reasons. The local checks are only made \n" +
+                        "when --select, --rejected-out or --dry-run is given, otherwise updateservice rejects such records.");
+
+        parser.addArgument("--dry-run")
+                .action(Arguments.storeTrue())
+                .help("Read and check all records and report which of them would be sent, without calling updateservice.");
+
+        parser.addArgument("--connect-timeout")
+                .setDefault(60000)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("MILLISECONDS")
+                .help("Max time to wait for a connection to updateservice. Default 60000.");
+
+        parser.addArgument("--request-timeout")
+                .setDefault(3600000)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("MILLISECONDS")
+                .help("Max time to wait for updateservice to answer a single call. \n" +
+                        "A call which times out is cancelled and reported as failed, or retried with --retry-timeouts. \n" +
+                        "Default 3600000.");
+
+        parser.addArgument("--deadline")
+                .setDefault(0)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("MILLISECONDS")
+                .help("Max time from the first attempt at sending a record until it is given up, including retries. \n" +
+                        "0 means no deadline. Default 0.");
+
+        parser.addArgument("--retries")
+                .setDefault(0)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("RETRIES")
+                .help("The number of times a record is sent again after a failure which happened before updateservice \n" +
+                        "got it, i.e. a refused connection or HTTP status 429 or 503 while updateservice is redeployed. \n" +
+                        "Records rejected by updateservice are never retried. Default 0, no retries.");
+
+        parser.addArgument("--retry-timeouts")
+                .action(Arguments.storeTrue())
+                .help("With --retries, also retry calls which failed after the record was sent, e.g. on a request timeout, \n" +
+                        "a connection reset or HTTP status 502 or 504. updateservice may already have applied such a record, \n" +
+                        "so only use this when updating the same record twice is harmless.");
+
+        parser.addArgument("--retry-delay")
+                .setDefault(1000)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("MILLISECONDS")
+                .help("Base delay before a retry. The delay doubles for every attempt and is randomized \n" +
+                        "so that retries are spread out. Default 1000.");
+
+        parser.addArgument("--retry-max-delay")
+                .setDefault(30000)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("MILLISECONDS")
+                .help("Upper bound on the delay before a retry. Default 30000.");
+
+        parser.addArgument("--circuit-breaker-threshold")
+                .setDefault(0)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("FAILURES")
+                .help("Pause the job after this many consecutive connection failures or HTTP 5xx responses from updateservice, \n" +
+                        "e.g. 5 to ride out a redeploy. Records are held while paused and the job resumes by itself \n" +
+                        "when updateservice answers again. Default 0, never pause.");
+
+        parser.addArgument("--circuit-breaker-probe-interval")
+                .setDefault(5000)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("MILLISECONDS")
+                .help("Time between checks of whether updateservice answers again while paused. Default 5000.");
+
+        parser.addArgument("--circuit-breaker-max-open")
+                .setDefault(300000)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("MILLISECONDS")
+                .help("Stop pausing when updateservice has not answered for this long, e.g. because the url is wrong. \n" +
+                        "The held records are then sent, fail and count towards the error limit. \n" +
+                        "0 pauses until updateservice answers. Default 300000.");
+
+        parser.addArgument("--ejection-threshold")
+                .setDefault(3)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("FAILURES")
+                .help("With several urls, stop sending to an instance for a while after this many consecutive \n" +
+                        "connection failures or HTTP 5xx responses from it. The last instance is never left out. \n" +
+                        "0 disables this. Default 3.");
+
+        parser.addArgument("--ejection-time")
+                .setDefault(30000)
+                .type(Integer.class)
+                .choices(Arguments.range(1, Integer.MAX_VALUE))
+                .metavar("MILLISECONDS")
+                .help("Time an instance is left out after failing. Default 30000.");
+
+        parser.addArgument("--metrics-interval")
+                .setDefault(0)
+                .type(Integer.class)
+                .choices(Arguments.range(0, Integer.MAX_VALUE))
+                .metavar("SECONDS")
+                .help("Log throughput, latencies of read, convert and updateRecord, calls in flight and queued records \n" +
+                        "at this interval. Default 0, no periodic log line.");
+
+        parser.addArgument("--metrics-file")
+                .metavar("FILE")
+                .help("Write metrics in Prometheus text format to FILE at every --metrics-interval, or every 10 seconds \n" +
+                        "without it, e.g. for the node exporter textfile collector.");
+
+        parser.addArgument("--metrics-port")
+                .type(Integer.class)
+                .choices(Arguments.range(0, 65535))
+                .metavar("PORT")
+                .help("Serve metrics in Prometheus text format on http://localhost:PORT/metrics while the job runs.");
 
         parser.addArgument("--validate-only")
                 .type(Boolean.class)
@@ -61,9 +304,12 @@ public class Cli {
                         "Default true, so must be set to false in order to actually update the records.");
 
         parser.addArgument("IN")
-                .type(Arguments.fileType().acceptSystemIn().verifyCanRead())
-                .help("Input file or standard input if given as a dash (-). \n" +
-                        "Supported formats are MARCXCHANGE, LINE or ISO2709.");
+                .nargs("+")
+                .help("Input files, directories or quoted glob patterns like 'dumps/*.iso', \n" +
+                        "or standard input if given as a single dash (-). \n" +
+                        "The files of a directory are read in name order, leaving out hidden files and sub-directories. \n" +
+                        "Supported formats are MARCXCHANGE, LINE or ISO2709. The format is deduced for each file. \n" +
+                        "gzip or zstd compressed input is decompressed on the fly.");
 
         try {
             this.args = parser.parseArgs(args);
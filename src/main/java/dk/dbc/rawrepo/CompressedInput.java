@@ -0,0 +1,116 @@
+package dk.dbc.rawrepo;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Transparent decompression of gzip and zstd compressed input.
+ * <p>
+ * The compression is recognized from the magic bytes at the start of the input, so file names
+ * don't matter and uncompressed input is passed through as it is. Input which is to be sent is
+ * decompressed by a {@link ReadAheadInputStream}, so inflating the next blocks overlaps with parsing
+ * the records, while input which is only peeked at is decompressed on the calling thread. Either way
+ * the format deduction sees the decompressed bytes. Concatenated gzip members and zstd frames are
+ * read as one input.
+ */
+public class CompressedInput {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompressedInput.class);
+
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1F, (byte) 0x8B};
+    private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD};
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    public enum Compression {
+        NONE, GZIP, ZSTD
+    }
+
+    private CompressedInput() {
+    }
+
+    /**
+     * @param is input which may be compressed
+     * @return the decompressed input, read ahead on a separate thread if it is compressed
+     * @throws IOException if the input could not be read, or if it is zstd compressed and zstd is
+     *                     not supported on this platform
+     */
+    public static InputStream decompress(InputStream is) throws IOException {
+        return decompress(is, true);
+    }
+
+    /**
+     * @param is input which may be compressed
+     * @param readAhead if true, compressed input is decompressed ahead on a separate thread.
+     *                  Use false when only the start of the input is read
+     * @return the decompressed input
+     * @throws IOException if the input could not be read, or if it is zstd compressed and zstd is
+     *                     not supported on this platform
+     */
+    public static InputStream decompress(InputStream is, boolean readAhead) throws IOException {
+        final PushbackInputStream pushbackInputStream = new PushbackInputStream(is, ZSTD_MAGIC.length);
+        final Compression compression = detect(pushbackInputStream);
+        LOGGER.debug("Input compression: {}", compression);
+        final InputStream decompressed;
+        switch (compression) {
+            case GZIP:
+                decompressed = new GZIPInputStream(pushbackInputStream, GZIP_BUFFER_SIZE);
+                break;
+            case ZSTD:
+                decompressed = openZstd(pushbackInputStream);
+                break;
+            default:
+                return pushbackInputStream;
+        }
+        return readAhead ? new ReadAheadInputStream(decompressed) : decompressed;
+    }
+
+    /**
+     * Recognizes the compression of the input, leaving the input where it was
+     *
+     * @param is input
+     * @return the compression of the input
+     * @throws IOException if the input could not be read
+     */
+    public static Compression detect(PushbackInputStream is) throws IOException {
+        final byte[] magic = new byte[ZSTD_MAGIC.length];
+        int bytesRead = 0;
+        int count;
+        while (bytesRead < magic.length && (count = is.read(magic, bytesRead, magic.length - bytesRead)) >= 0) {
+            bytesRead += count;
+        }
+        is.unread(magic, 0, bytesRead);
+        if (startsWith(magic, bytesRead, GZIP_MAGIC)) {
+            return Compression.GZIP;
+        }
+        if (startsWith(magic, bytesRead, ZSTD_MAGIC)) {
+            return Compression.ZSTD;
+        }
+        return Compression.NONE;
+    }
+
+    private static InputStream openZstd(InputStream is) throws IOException {
+        try {
+            return new ZstdInputStream(is);
+        } catch (LinkageError e) {
+            // zstd-jni loads a native library, which is not available on every platform
+            throw new IOException("zstd compressed input is not supported on this platform: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,193 @@
+package dk.dbc.rawrepo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent updateservice calls.
+ * <p>
+ * A fixed limiter always allows the same number of calls in flight.
+ * An adaptive limiter starts out at the initial limit and then adjusts the
+ * limit using additive increase/multiplicative decrease (AIMD):
+ * <ul>
+ *     <li>
+ *         While the smoothed call latency stays close to the lowest smoothed latency
+ *         seen so far, the limit grows by one for every limit-sized round of successful calls.
+ *     </li>
+ *     <li>
+ *         When the smoothed latency rises above {@link #LATENCY_TOLERANCE} times the baseline,
+ *         or a call fails with a transport error, the limit is cut by {@link #BACKOFF_RATIO}.
+ *         The limit is cut at most once per round, so a burst of slow calls
+ *         only counts as one signal.
+ *     </li>
+ * </ul>
+ * Instances of this class are thread safe. Waiting is done on a {@link ReentrantLock} rather than
+ * a monitor, so that a waiting virtual thread does not pin its carrier thread.
+ */
+public class ConcurrencyLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final double BACKOFF_RATIO = 0.75;
+    // Single calls vary a lot, so decisions are based on an
+    // exponentially weighted moving average of the latency
+    private static final double SMOOTHING = 0.05;
+    private static final int WARMUP_CALLS = 20;
+    // The baseline is allowed to creep up slowly so that a permanent
+    // change in service latency doesn't pin the limit at the minimum
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final boolean adaptive;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private double limit;
+    private int inFlight = 0;
+    private double smoothedLatencyNanos = 0;
+    private double baselineLatencyNanos = Double.MAX_VALUE;
+    private int calls = 0;
+    private int callsSinceDecrease = 0;
+
+    private ConcurrencyLimiter(boolean adaptive, int initialLimit, int maxLimit) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid concurrency limits: initial %d, max %d", initialLimit, maxLimit));
+        }
+        this.adaptive = adaptive;
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @param limit number of calls allowed in flight
+     * @return limiter always allowing {@code limit} calls in flight
+     */
+    public static ConcurrencyLimiter fixed(int limit) {
+        return new ConcurrencyLimiter(false, limit, limit);
+    }
+
+    /**
+     * @param initialLimit number of calls allowed in flight at start
+     * @param maxLimit upper bound on the number of calls allowed in flight
+     * @return limiter adjusting its limit according to the latency of the calls
+     */
+    public static ConcurrencyLimiter adaptive(int initialLimit, int maxLimit) {
+        return new ConcurrencyLimiter(true, initialLimit, maxLimit);
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return the highest number of calls this limiter will ever allow in flight
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a call is allowed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                permitAvailable.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a call as completed
+     * @param latencyNanos duration of the call
+     * @param overloaded true if the call failed in a way indicating that the service is struggling
+     */
+    public void release(long latencyNanos, boolean overloaded) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (adaptive) {
+                adjust(latencyNanos, overloaded);
+            }
+            // The limit may have grown, so more than one caller can be let in
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a permit without making the call, which leaves the limit as it is
+     */
+    public void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(long latencyNanos, boolean overloaded) {
+        calls++;
+        callsSinceDecrease++;
+        if (!overloaded) {
+            smoothedLatencyNanos = smoothedLatencyNanos == 0
+                    ? latencyNanos
+                    : smoothedLatencyNanos + (latencyNanos - smoothedLatencyNanos) * SMOOTHING;
+        }
+        if (calls < WARMUP_CALLS && !overloaded) {
+            return;
+        }
+        if (smoothedLatencyNanos == 0) {
+            // No successful call yet, so there is nothing to compare with
+        } else if (smoothedLatencyNanos < baselineLatencyNanos) {
+            baselineLatencyNanos = smoothedLatencyNanos;
+        } else {
+            baselineLatencyNanos += (smoothedLatencyNanos - baselineLatencyNanos) * BASELINE_DRIFT;
+        }
+
+        if (overloaded || smoothedLatencyNanos > baselineLatencyNanos * LATENCY_TOLERANCE) {
+            if (callsSinceDecrease >= limit) {
+                final int previous = (int) limit;
+                limit = Math.max(1, limit * BACKOFF_RATIO);
+                callsSinceDecrease = 0;
+                LOGGER.debug("Concurrency limit decreased from {} to {}", previous, (int) limit);
+            }
+        } else if (limit < maxLimit) {
+            final int previous = (int) limit;
+            limit = Math.min(maxLimit, limit + 1 / limit);
+            if ((int) limit != previous) {
+                LOGGER.debug("Concurrency limit increased from {} to {}", previous, (int) limit);
+            }
+        }
+    }
+}
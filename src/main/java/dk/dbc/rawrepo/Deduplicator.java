@@ -0,0 +1,379 @@
+package dk.dbc.rawrepo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the records to skip when each record id (001 *a:*b) is only to be sent once.
+ * <p>
+ * Every record of the input is registered with its 1-based ordinal through {@link #add}. The index
+ * holds a 128 bit hash of the record id together with the ordinal, 20 bytes per record. It is
+ * sorted in runs of {@link #RUN_SIZE} records, and runs are spilled to temporary files, so
+ * the heap holds at most one run no matter how large the input is. {@link #finish()} merges the
+ * runs, at most {@link #MAX_MERGE_WIDTH} at a time to bound the number of open files, and returns
+ * the ordinals of all records but the first or the last one of each record id, as a bitmap of one
+ * bit per record.
+ * <p>
+ * Records without both 001 *a and *b are never regarded as duplicates.
+ * Instances of this class are NOT thread safe.
+ */
+public class Deduplicator implements Closeable {
+    static final int RUN_SIZE = 1 << 20;
+    static final int MAX_MERGE_WIDTH = 64;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    public enum Mode {
+        /**
+         * Send the first record with each record id
+         */
+        FIRST,
+        /**
+         * Send the last record with each record id
+         */
+        LAST
+    }
+
+    private final Mode mode;
+    private final MessageDigest digest;
+    private final int runSize;
+    private long[] highs;
+    private long[] lows;
+    private int[] ordinals;
+    private final List<Path> runFiles = new ArrayList<>();
+    private int count = 0;
+    private int recordCount = 0;
+    private int duplicateCount = 0;
+
+    /**
+     * @param mode which of the records with the same id to send
+     */
+    public Deduplicator(Mode mode) {
+        this(mode, RUN_SIZE);
+    }
+
+    Deduplicator(Mode mode, int runSize) {
+        this.mode = mode;
+        try {
+            // Not for security, only for ids spread evenly over 128 bits
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.runSize = runSize;
+        // Grown up to the run size as needed, so small inputs stay small
+        final int initialSize = Math.min(runSize, 1024);
+        highs = new long[initialSize];
+        lows = new long[initialSize];
+        ordinals = new int[initialSize];
+    }
+
+    /**
+     * Registers a record. Records must be added in input order.
+     * @param ordinal 1-based position of the record in the input
+     * @param recordId 001 *a and *b of the record
+     * @throws UncheckedIOException if a full run could not be written to disk
+     */
+    public void add(int ordinal, RecordId recordId) {
+        recordCount++;
+        if (RecordId.UNKNOWN.equals(recordId.getBibliographicRecordId()) || RecordId.UNKNOWN.equals(recordId.getAgencyId())) {
+            return;
+        }
+        if (count == ordinals.length) {
+            if (count < runSize) {
+                final int size = Math.min(runSize, count * 2);
+                highs = Arrays.copyOf(highs, size);
+                lows = Arrays.copyOf(lows, size);
+                ordinals = Arrays.copyOf(ordinals, size);
+            } else {
+                spill();
+            }
+        }
+        digest.update(recordId.getBibliographicRecordId().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        final byte[] hash = digest.digest(recordId.getAgencyId().getBytes(StandardCharsets.UTF_8));
+        highs[count] = toLong(hash, 0);
+        lows[count] = toLong(hash, 8);
+        ordinals[count] = ordinal;
+        count++;
+    }
+
+    /**
+     * Merges the index
+     * @return the ordinals of the records to skip
+     * @throws IOException if the spilled runs could not be read
+     */
+    public BitSet finish() throws IOException {
+        sort(0, count - 1);
+        while (runFiles.size() >= MAX_MERGE_WIDTH) {
+            mergeRunFiles();
+        }
+        final PriorityQueue<Run> runs = new PriorityQueue<>();
+        try {
+            openRunFiles(runFiles, runs);
+            final Run memoryRun = new MemoryRun();
+            if (memoryRun.next()) {
+                runs.add(memoryRun);
+            }
+
+            final BitSet duplicates = new BitSet();
+            boolean first = true;
+            long high = 0;
+            long low = 0;
+            int previousOrdinal = 0;
+            while (!runs.isEmpty()) {
+                final Run run = runs.poll();
+                final boolean sameId = !first && run.high == high && run.low == low;
+                if (sameId) {
+                    // Ordinals of the same id arrive in increasing order
+                    duplicates.set(mode == Mode.FIRST ? run.ordinal : previousOrdinal);
+                    duplicateCount++;
+                }
+                first = false;
+                high = run.high;
+                low = run.low;
+                if (!sameId || mode == Mode.LAST) {
+                    previousOrdinal = run.ordinal;
+                }
+                if (run.next()) {
+                    runs.add(run);
+                } else {
+                    run.close();
+                }
+            }
+            return duplicates;
+        } finally {
+            for (Run run : runs) {
+                run.close();
+            }
+            close();
+        }
+    }
+
+    /**
+     * @return number of records added
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return number of records to skip, known when {@link #finish()} has returned
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Deletes the spilled runs
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path runFile : runFiles) {
+            Files.deleteIfExists(runFile);
+        }
+        runFiles.clear();
+    }
+
+    private void spill() {
+        sort(0, count - 1);
+        try {
+            final Path runFile = Files.createTempFile("rrupdate-dedupe-", ".run");
+            runFiles.add(runFile);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), IO_BUFFER_SIZE))) {
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(highs[i]);
+                    out.writeLong(lows[i]);
+                    out.writeInt(ordinals[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write duplicate index to temporary file", e);
+        }
+        count = 0;
+    }
+
+    /**
+     * Merges the oldest run files into one
+     */
+    private void mergeRunFiles() throws IOException {
+        final List<Path> merged = new ArrayList<>(runFiles.subList(0, MAX_MERGE_WIDTH));
+        final PriorityQueue<Run> runs = new PriorityQueue<>();
+        final Path runFile = Files.createTempFile("rrupdate-dedupe-", ".run");
+        runFiles.add(runFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), IO_BUFFER_SIZE))) {
+            openRunFiles(merged, runs);
+            while (!runs.isEmpty()) {
+                final Run run = runs.poll();
+                out.writeLong(run.high);
+                out.writeLong(run.low);
+                out.writeInt(run.ordinal);
+                if (run.next()) {
+                    runs.add(run);
+                } else {
+                    run.close();
+                }
+            }
+        } finally {
+            for (Run run : runs) {
+                run.close();
+            }
+        }
+        for (Path path : merged) {
+            Files.delete(path);
+        }
+        runFiles.removeAll(merged);
+    }
+
+    private static void openRunFiles(List<Path> paths, PriorityQueue<Run> runs) throws IOException {
+        for (Path path : paths) {
+            final Run run = new FileRun(path);
+            if (run.next()) {
+                runs.add(run);
+            } else {
+                run.close();
+            }
+        }
+    }
+
+    private void sort(int from, int to) {
+        // Quicksort of the three parallel arrays, recursing into the smaller part only
+        while (to - from > 16) {
+            final int pivot = partition(from, to);
+            if (pivot - from < to - pivot) {
+                sort(from, pivot - 1);
+                from = pivot + 1;
+            } else {
+                sort(pivot + 1, to);
+                to = pivot - 1;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && compare(j - 1, j) > 0; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private int partition(int from, int to) {
+        swap((from + to) >>> 1, to);
+        int store = from;
+        for (int i = from; i < to; i++) {
+            if (compare(i, to) < 0) {
+                swap(i, store++);
+            }
+        }
+        swap(store, to);
+        return store;
+    }
+
+    private int compare(int i, int j) {
+        return compare(highs[i], lows[i], ordinals[i], highs[j], lows[j], ordinals[j]);
+    }
+
+    private void swap(int i, int j) {
+        final long high = highs[i];
+        highs[i] = highs[j];
+        highs[j] = high;
+        final long low = lows[i];
+        lows[i] = lows[j];
+        lows[j] = low;
+        final int ordinal = ordinals[i];
+        ordinals[i] = ordinals[j];
+        ordinals[j] = ordinal;
+    }
+
+    private static int compare(long high1, long low1, int ordinal1, long high2, long low2, int ordinal2) {
+        if (high1 != high2) {
+            return Long.compare(high1, high2);
+        }
+        if (low1 != low2) {
+            return Long.compare(low1, low2);
+        }
+        return Integer.compare(ordinal1, ordinal2);
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = value << 8 | bytes[i] & 0xFF;
+        }
+        return value;
+    }
+
+    /**
+     * Cursor over a sorted run
+     */
+    private abstract static class Run implements Comparable<Run>, Closeable {
+        long high;
+        long low;
+        int ordinal;
+
+        abstract boolean next() throws IOException;
+
+        @Override
+        public int compareTo(Run other) {
+            return compare(high, low, ordinal, other.high, other.low, other.ordinal);
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private class MemoryRun extends Run {
+        private int position = 0;
+
+        @Override
+        boolean next() {
+            if (position == count) {
+                return false;
+            }
+            high = highs[position];
+            low = lows[position];
+            ordinal = ordinals[position];
+            position++;
+            return true;
+        }
+    }
+
+    private static class FileRun extends Run {
+        private final DataInputStream in;
+
+        private FileRun(Path runFile) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), IO_BUFFER_SIZE));
+        }
+
+        @Override
+        boolean next() throws IOException {
+            try {
+                high = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            low = in.readLong();
+            ordinal = in.readInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package dk.dbc.rawrepo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spreads the calls to updateservice over several instances of it.
+ * <p>
+ * Every endpoint has a connector pool of its own, and each call goes to the endpoint with
+ * the fewest calls in flight, so a slow instance automatically gets fewer calls than a fast one.
+ * An endpoint failing a number of calls in a row with connection failures or HTTP 5xx responses
+ * is ejected for a while, and its calls go to the other endpoints until it is tried again.
+ * The last endpoint in service is never ejected, that case is left to the {@link CircuitBreaker}.
+ * Instances of this class are thread safe.
+ */
+public class EndpointBalancer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EndpointBalancer.class);
+
+    private final List<Endpoint> endpoints;
+    private final int ejectionThreshold;
+    private final long ejectionNanos;
+    // Virtual threads may wait here, so no synchronized (see ConcurrencyLimiter)
+    private final ReentrantLock lock = new ReentrantLock();
+    private int next = 0;
+
+    /**
+     * @param connectorPools a connector pool per endpoint
+     * @param ejectionThreshold number of consecutive failures ejecting an endpoint, 0 to never eject
+     * @param ejectionMillis time an ejected endpoint is out of service
+     */
+    public EndpointBalancer(List<UpdateServiceConnectorPool> connectorPools, int ejectionThreshold, long ejectionMillis) {
+        if (connectorPools.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        final List<Endpoint> list = new ArrayList<>();
+        for (UpdateServiceConnectorPool connectorPool : connectorPools) {
+            list.add(new Endpoint(connectorPool));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.ejectionThreshold = ejectionThreshold;
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+    }
+
+    /**
+     * Chooses the endpoint of a call. The call must be reported using {@link #release(Endpoint, long, boolean)}.
+     * @return the endpoint in service with the fewest calls in flight
+     */
+    public Endpoint choose() {
+        lock.lock();
+        try {
+            final long now = System.nanoTime();
+            Endpoint chosen = null;
+            // Start from a new endpoint every time, so that ties are spread evenly
+            final int start = next;
+            next = (next + 1) % endpoints.size();
+            for (int i = 0; i < endpoints.size(); i++) {
+                final Endpoint endpoint = endpoints.get((start + i) % endpoints.size());
+                if (endpoint.ejected) {
+                    if (endpoint.isEjected(now)) {
+                        continue;
+                    }
+                    endpoint.ejected = false;
+                    LOGGER.info("Sending to {} again", endpoint);
+                }
+                if (chosen == null || endpoint.inFlight < chosen.inFlight) {
+                    chosen = endpoint;
+                }
+            }
+            if (chosen == null) {
+                // Not reached since the last endpoint in service is never ejected
+                chosen = endpoints.get(start);
+            }
+            chosen.inFlight++;
+            return chosen;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports the end of a call
+     * @param endpoint endpoint of the call, as returned by {@link #choose()}
+     * @param latencyNanos duration of the call
+     * @param failed true if the call failed because the endpoint could not be reached or was unavailable
+     */
+    public void release(Endpoint endpoint, long latencyNanos, boolean failed) {
+        endpoint.callCount.incrementAndGet();
+        endpoint.latencyNanos.addAndGet(latencyNanos);
+        if (failed) {
+            endpoint.failureCount.incrementAndGet();
+        }
+        lock.lock();
+        try {
+            endpoint.inFlight--;
+            if (!failed) {
+                endpoint.consecutiveFailures = 0;
+                return;
+            }
+            endpoint.consecutiveFailures++;
+            final long now = System.nanoTime();
+            if (ejectionThreshold > 0 && endpoint.consecutiveFailures >= ejectionThreshold
+                    && !endpoint.isEjected(now) && getInServiceCount(now) > 1) {
+                endpoint.consecutiveFailures = 0;
+                endpoint.ejected = true;
+                endpoint.ejectedUntil = now + ejectionNanos;
+                endpoint.ejectionCount.incrementAndGet();
+                LOGGER.warn("{} failed {} calls in a row, sending to the other endpoints for {} ms",
+                        endpoint, ejectionThreshold, TimeUnit.NANOSECONDS.toMillis(ejectionNanos));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports that the endpoint chosen for a call was not called after all
+     * @param endpoint endpoint as returned by {@link #choose()}
+     */
+    public void cancel(Endpoint endpoint) {
+        lock.lock();
+        try {
+            endpoint.inFlight--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    private int getInServiceCount(long now) {
+        int count = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.isEjected(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * An instance of updateservice, together with the calls made to it
+     */
+    public static final class Endpoint {
+        private final UpdateServiceConnectorPool connectorPool;
+        private final AtomicInteger callCount = new AtomicInteger(0);
+        private final AtomicInteger failureCount = new AtomicInteger(0);
+        private final AtomicInteger ejectionCount = new AtomicInteger(0);
+        private final AtomicLong latencyNanos = new AtomicLong(0);
+        // Guarded by the lock of the balancer
+        private int inFlight = 0;
+        private int consecutiveFailures = 0;
+        private boolean ejected = false;
+        private long ejectedUntil;
+
+        private Endpoint(UpdateServiceConnectorPool connectorPool) {
+            this.connectorPool = connectorPool;
+        }
+
+        public UpdateServiceConnectorPool getConnectorPool() {
+            return connectorPool;
+        }
+
+        /**
+         * @return number of calls made to the endpoint
+         */
+        public int getCallCount() {
+            return callCount.get();
+        }
+
+        /**
+         * @return number of calls failing because the endpoint could not be reached or was unavailable
+         */
+        public int getFailureCount() {
+            return failureCount.get();
+        }
+
+        /**
+         * @return number of times the endpoint has been ejected
+         */
+        public int getEjectionCount() {
+            return ejectionCount.get();
+        }
+
+        /**
+         * @return mean duration of the calls made to the endpoint in milliseconds
+         */
+        public double getMeanLatencyMillis() {
+            final int calls = callCount.get();
+            return calls > 0 ? latencyNanos.get() / 1e6 / calls : 0;
+        }
+
+        private boolean isEjected(long now) {
+            return ejected && ejectedUntil - now > 0;
+        }
+
+        @Override
+        public String toString() {
+            return connectorPool.getEndpoint();
+        }
+    }
+}
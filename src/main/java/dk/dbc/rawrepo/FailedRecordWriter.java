@@ -0,0 +1,218 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.writer.DanMarc2LineFormatWriter;
+import dk.dbc.marc.writer.Iso2709MarcRecordWriter;
+import dk.dbc.marc.writer.LineFormatWriter;
+import dk.dbc.marc.writer.MarcWriter;
+import dk.dbc.marc.writer.MarcWriterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes records which failed in updateservice to a file in the format of the input,
+ * so that a later run can be limited to the failed records. Also used for the records
+ * rejected by the {@link RecordValidator}.
+ * <p>
+ * Next to the records file a sidecar file with the suffix {@link #REASONS_SUFFIX} is written.
+ * It has a line per failed record holding the position of the record in the original input,
+ * its 001 *a:*b id and the reason it failed, separated by tabs. Line n of the sidecar file
+ * describes record n of the records file.
+ * <p>
+ * Records are handed over to a dedicated writer thread, so workers never wait for disk.
+ * Instances of this class are thread safe.
+ */
+public class FailedRecordWriter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FailedRecordWriter.class);
+
+    public static final String REASONS_SUFFIX = ".reasons";
+
+    private static final int QUEUE_CAPACITY = 1000;
+    // Marks that no more failures will be written
+    private static final Failure END_OF_FAILURES = new Failure(null, null);
+
+    private final Path path;
+    private final MarcFormatDeducer.FORMAT format;
+    private final Charset encoding;
+    private final OutputStream records;
+    private final Writer reasons;
+    private final BlockingQueue<Failure> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private final MarcWriter marcWriter;
+    private final MarcXchangeDomConverter marcXchangeDomConverter;
+    private final Transformer transformer;
+
+    private volatile IOException writeError;
+    private int writtenCount = 0;
+
+    private FailedRecordWriter(Path path, MarcFormatDeducer.FORMAT format, Charset encoding) throws IOException {
+        this.path = path;
+        this.format = format;
+        this.encoding = encoding;
+        if (format == MarcFormatDeducer.FORMAT.MARCXCHANGE) {
+            marcWriter = null;
+            marcXchangeDomConverter = new MarcXchangeDomConverter();
+            try {
+                transformer = TransformerFactory.newInstance().newTransformer();
+                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+                transformer.setOutputProperty(OutputKeys.ENCODING, encoding.name());
+            } catch (TransformerConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            marcWriter = getMarcWriter(format);
+            marcXchangeDomConverter = null;
+            transformer = null;
+        }
+        records = new BufferedOutputStream(Files.newOutputStream(path));
+        reasons = Files.newBufferedWriter(path.resolveSibling(path.getFileName() + REASONS_SUFFIX), StandardCharsets.UTF_8);
+        if (format == MarcFormatDeducer.FORMAT.MARCXCHANGE) {
+            records.write(("<?xml version=\"1.0\" encoding=\"" + encoding.name() + "\"?>\n" +
+                    "<marcx:collection xmlns:marcx=\"" + MarcXchangeDomConverter.NAMESPACE + "\">\n").getBytes(encoding));
+        }
+        writerThread = new Thread(this::drain, "failed-record-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Opens a writer for failed records. Existing files are overwritten.
+     * @param path file to write failed records to
+     * @param format format of the input, which is also used for the failed records
+     * @param encoding encoding of the input
+     * @return writer
+     * @throws IOException if the files could not be created
+     */
+    public static FailedRecordWriter open(Path path, MarcFormatDeducer.FORMAT format, Charset encoding) throws IOException {
+        return new FailedRecordWriter(path, format, encoding);
+    }
+
+    /**
+     * Queues a failed record for writing. Blocks if the writer thread is far behind.
+     * @param inputRecord the failed record
+     * @param reason why the record failed
+     */
+    void write(InputRecord inputRecord, String reason) {
+        try {
+            queue.put(new Failure(inputRecord, reason));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while writing failed record '{}' to {}", inputRecord.getRecordId(), path);
+        }
+    }
+
+    /**
+     * Writes all queued records and closes the files
+     * @throws IOException if any of the failed records could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(END_OF_FAILURES);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing " + path, e);
+        }
+        try (Writer closeReasons = reasons; OutputStream closeRecords = records) {
+            if (writeError != null) {
+                throw writeError;
+            }
+            if (format == MarcFormatDeducer.FORMAT.MARCXCHANGE) {
+                records.write("</marcx:collection>\n".getBytes(encoding));
+            }
+        }
+        LOGGER.info("{} records written to {}", writtenCount, path);
+    }
+
+    private void drain() {
+        try {
+            Failure failure = queue.take();
+            while (failure != END_OF_FAILURES) {
+                if (writeError == null) {
+                    try {
+                        writeFailure(failure);
+                        if (queue.isEmpty()) {
+                            // Keep the files current while the job runs, without flushing on every record
+                            records.flush();
+                            reasons.flush();
+                        }
+                    } catch (IOException e) {
+                        LOGGER.error("Could not write failed records to {}: {}", path, e.toString());
+                        writeError = e;
+                    } catch (RuntimeException e) {
+                        // Keep taking records, so that the workers never block on a full queue
+                        LOGGER.error("Could not write failed records to {}: {}", path, e.toString());
+                        writeError = new IOException(e);
+                    }
+                }
+                failure = queue.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeFailure(Failure failure) throws IOException {
+        final InputRecord inputRecord = failure.inputRecord;
+        try {
+            if (marcWriter != null) {
+                records.write(marcWriter.write(inputRecord.getMarcRecord(), encoding));
+            } else if (inputRecord.getMarcXchange() != null) {
+                // Already a marcxchange record, only the encoding may differ
+                records.write(new String(inputRecord.getMarcXchange(), StandardCharsets.UTF_8).getBytes(encoding));
+                records.write('\n');
+            } else {
+                transformer.transform(new DOMSource(marcXchangeDomConverter.toDocument(inputRecord.getMarcRecord())),
+                        new StreamResult(records));
+                records.write('\n');
+            }
+        } catch (MarcWriterException | TransformerException | RuntimeException e) {
+            // Leave it out of both files, so that they stay aligned
+            LOGGER.error("Could not write failed record '{}' to {}: {}", inputRecord.getRecordId(), path, e.toString());
+            return;
+        }
+        reasons.write(inputRecord.getOrdinal() + "\t" + inputRecord.getRecordId() + "\t" +
+                failure.reason.replaceAll("[\t\r\n]+", " ") + "\n");
+        writtenCount++;
+    }
+
+    private static MarcWriter getMarcWriter(MarcFormatDeducer.FORMAT format) {
+        switch (format) {
+            case LINE:
+                return new LineFormatWriter();
+            case DANMARC2_LINE:
+                return new DanMarc2LineFormatWriter();
+            default:
+                return new Iso2709MarcRecordWriter();
+        }
+    }
+
+    private static class Failure {
+        private final InputRecord inputRecord;
+        private final String reason;
+
+        private Failure(InputRecord inputRecord, String reason) {
+            this.inputRecord = inputRecord;
+            this.reason = reason;
+        }
+    }
+}
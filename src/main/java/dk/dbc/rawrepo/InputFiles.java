@@ -0,0 +1,114 @@
+package dk.dbc.rawrepo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Expands the input arguments of a job into input files.
+ * <p>
+ * An argument is either
+ * <ul>
+ *     <li>a file,</li>
+ *     <li>
+ *         a directory, standing for all the files directly in it in name order.
+ *         Hidden files and sub-directories are left out,
+ *     </li>
+ *     <li>
+ *         a glob pattern like {@code 'dumps/*.iso'} or {@code 'dumps/**.iso'}, standing for the matching
+ *         files in name order. Quoting the pattern avoids the limit on the length of the command line.
+ *     </li>
+ * </ul>
+ * A dash (-) stands for standard input and can only be given as the only argument.
+ */
+public class InputFiles {
+    public static final String STDIN = "-";
+
+    private InputFiles() {
+    }
+
+    /**
+     * @param arguments input arguments
+     * @return the input files in the order given
+     * @throws IllegalArgumentException if an argument doesn't stand for any file
+     * @throws IOException if a directory could not be listed
+     */
+    public static List<File> expand(List<String> arguments) throws IllegalArgumentException, IOException {
+        if (arguments.contains(STDIN) && arguments.size() > 1) {
+            throw new IllegalArgumentException("Standard input (-) can't be combined with other inputs");
+        }
+        final List<File> files = new ArrayList<>();
+        for (String argument : arguments) {
+            final File file = new File(argument);
+            if (STDIN.equals(argument) || file.isFile()) {
+                files.add(file);
+            } else if (file.isDirectory()) {
+                files.addAll(listDirectory(file.toPath()));
+            } else if (isGlob(argument)) {
+                files.addAll(match(argument));
+            } else {
+                throw new IllegalArgumentException("Could not read " + argument);
+            }
+        }
+        return files;
+    }
+
+    private static List<File> listDirectory(Path directory) throws IOException {
+        final List<File> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.filter(InputFiles::isVisibleFile)
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No input files in directory " + directory);
+        }
+        return files;
+    }
+
+    private static List<File> match(String pattern) throws IOException {
+        // Only the part of the tree below the last directory without wildcards can match
+        final Path patternPath = Paths.get(pattern);
+        Path base = patternPath.isAbsolute() ? patternPath.getRoot() : Paths.get("");
+        int depth = patternPath.getNameCount();
+        for (Path name : patternPath) {
+            if (isGlob(name.toString())) {
+                break;
+            }
+            base = base.resolve(name);
+            depth--;
+        }
+        if (!Files.isDirectory(base.toAbsolutePath())) {
+            throw new IllegalArgumentException("No input files match " + pattern);
+        }
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        final List<File> files;
+        try (Stream<Path> paths = Files.walk(base, pattern.contains("**") ? Integer.MAX_VALUE : depth)) {
+            files = paths.filter(path -> matcher.matches(path) && isVisibleFile(path))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No input files match " + pattern);
+        }
+        return files;
+    }
+
+    private static boolean isVisibleFile(Path path) {
+        return Files.isRegularFile(path) && !path.getFileName().toString().startsWith(".");
+    }
+
+    private static boolean isGlob(String argument) {
+        return argument.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+}
@@ -0,0 +1,146 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A record read from the input together with its position in the input.
+ * <p>
+ * The record is held either as a MarcRecord or, when cut out of a marcxchange collection
+ * by {@link MarcXchangeSplitter}, as the bytes of the marcxchange record element.
+ */
+class InputRecord {
+    private final int ordinal;
+    private final MarcRecord marcRecord;
+    private final byte[] marcXchange;
+    private RecordId recordId;
+    private JobInput input;
+    private RecordRouter.Route route;
+    // Built on the reading side when the fields of a record held as bytes are needed
+    private MarcRecord parsedMarcRecord;
+    // Only ever touched by the thread currently holding the record
+    private int attempts = 0;
+    private long startedAt;
+
+    /**
+     * @param ordinal 1-based position of the record in the input
+     * @param marcRecord the record
+     */
+    InputRecord(int ordinal, MarcRecord marcRecord) {
+        this.ordinal = ordinal;
+        this.marcRecord = marcRecord;
+        this.marcXchange = null;
+    }
+
+    /**
+     * @param ordinal 1-based position of the record in the input
+     * @param marcXchange the record as a standalone UTF-8 encoded marcxchange document
+     * @param recordId 001 *a and *b of the record
+     */
+    InputRecord(int ordinal, byte[] marcXchange, RecordId recordId) {
+        this.ordinal = ordinal;
+        this.marcRecord = null;
+        this.marcXchange = marcXchange;
+        this.recordId = recordId;
+    }
+
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * @return the record, or null if the record is held as marcxchange bytes
+     */
+    MarcRecord getMarcRecord() {
+        return marcRecord;
+    }
+
+    /**
+     * @return the record as a standalone UTF-8 encoded marcxchange document, or null if the record is held as a MarcRecord
+     */
+    byte[] getMarcXchange() {
+        return marcXchange;
+    }
+
+    /**
+     * @return the record, built from the marcxchange bytes if the record is held as bytes
+     * @throws IllegalArgumentException if the bytes are not a well-formed XML document
+     */
+    MarcRecord toMarcRecord() {
+        if (marcRecord != null) {
+            return marcRecord;
+        }
+        if (parsedMarcRecord == null) {
+            parsedMarcRecord = MarcXchangeSplitter.toMarcRecord(marcXchange);
+        }
+        return parsedMarcRecord;
+    }
+
+    /**
+     * Registers a new attempt at sending the record
+     * @return number of attempts including this one
+     */
+    int nextAttempt() {
+        if (attempts == 0) {
+            startedAt = System.nanoTime();
+        }
+        return ++attempts;
+    }
+
+    /**
+     * Takes back the latest attempt, e.g. because it failed while updateservice was unavailable
+     */
+    void cancelAttempt() {
+        attempts--;
+    }
+
+    /**
+     * Starts the clock over for the deadline of the record
+     */
+    void restartClock() {
+        startedAt = System.nanoTime();
+    }
+
+    /**
+     * @return milliseconds since the first attempt at sending the record, or since the clock was restarted
+     */
+    long getMillisSinceStart() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the input the record was read from
+     */
+    JobInput getInput() {
+        return input;
+    }
+
+    void setInput(JobInput input) {
+        this.input = input;
+    }
+
+    /**
+     * @return template, provider and priority to send the record with
+     */
+    RecordRouter.Route getRoute() {
+        return route;
+    }
+
+    void setRoute(RecordRouter.Route route) {
+        this.route = route;
+        // Not needed any more, so don't hold on to it while the record waits for a worker
+        this.parsedMarcRecord = null;
+    }
+
+    RecordId getRecordId() {
+        if (recordId == null) {
+            recordId = RecordId.of(marcRecord);
+        }
+        return recordId;
+    }
+}
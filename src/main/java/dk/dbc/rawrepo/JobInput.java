@@ -0,0 +1,95 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.reader.MarcReaderException;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One input of a job, e.g. one of several files, together with the counts for its summary.
+ * The input is only opened when it is about to be read.
+ */
+class JobInput {
+    /**
+     * Opens the input
+     */
+    interface Opener {
+        UpdateServiceHandler.RecordSource open() throws IOException, MarcReaderException;
+    }
+
+    private final String name;
+    private final MarcFormatDeducer.FORMAT format;
+    private final Opener opener;
+    private final AtomicInteger totalCount = new AtomicInteger(0);
+    private final AtomicInteger successCount = new AtomicInteger(0);
+    private final AtomicInteger errorCount = new AtomicInteger(0);
+    private final AtomicInteger skippedCount = new AtomicInteger(0);
+    private final AtomicInteger duplicateCount = new AtomicInteger(0);
+    private final AtomicInteger rejectedCount = new AtomicInteger(0);
+    private volatile String readError;
+
+    /**
+     * @param name name of the input used in the summary, e.g. the file name
+     * @param format format of the input
+     * @param opener opens the input
+     */
+    JobInput(String name, MarcFormatDeducer.FORMAT format, Opener opener) {
+        this.name = name;
+        this.format = format;
+        this.opener = opener;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    MarcFormatDeducer.FORMAT getFormat() {
+        return format;
+    }
+
+    UpdateServiceHandler.RecordSource open() throws IOException, MarcReaderException {
+        return opener.open();
+    }
+
+    AtomicInteger getTotalCount() {
+        return totalCount;
+    }
+
+    AtomicInteger getSuccessCount() {
+        return successCount;
+    }
+
+    AtomicInteger getErrorCount() {
+        return errorCount;
+    }
+
+    AtomicInteger getSkippedCount() {
+        return skippedCount;
+    }
+
+    AtomicInteger getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    AtomicInteger getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return number of records which were or would be handed to the workers
+     */
+    int getSendableCount() {
+        return totalCount.get() - skippedCount.get() - duplicateCount.get() - rejectedCount.get();
+    }
+
+    /**
+     * @return why the input could not be read to the end, or null if it could
+     */
+    String getReadError() {
+        return readError;
+    }
+
+    void setReadError(String readError) {
+        this.readError = readError;
+    }
+}
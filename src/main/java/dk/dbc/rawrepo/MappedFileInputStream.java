@@ -0,0 +1,107 @@
+package dk.dbc.rawrepo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * InputStream reading a regular file through memory mapping.
+ * <p>
+ * The file is mapped in windows of {@link #WINDOW_SIZE} bytes, one at a time, so files larger
+ * than the 2 GB limit of a single mapping are supported. Reads are plain memory copies from the
+ * page cache, so the many small reads done by the marc readers cost no system calls.
+ * Instances of this class are NOT thread safe.
+ */
+public class MappedFileInputStream extends InputStream {
+    static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private long windowStart = 0;
+    private MappedByteBuffer window;
+
+    /**
+     * @param path regular file to read
+     * @throws IOException if the file could not be opened or mapped
+     */
+    public MappedFileInputStream(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            size = channel.size();
+            window = map(0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        final int count = Math.min(len, window.remaining());
+        window.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        final long position = windowStart + window.position();
+        final long target = Math.min(size, position + n);
+        if (target < windowStart + window.limit()) {
+            window.position((int) (target - windowStart));
+        } else {
+            windowStart = target;
+            window = map(target);
+        }
+        return target - position;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - windowStart - window.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself is released when the buffer is garbage collected
+        channel.close();
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        if (window.hasRemaining()) {
+            return true;
+        }
+        final long next = windowStart + window.limit();
+        if (next >= size) {
+            return false;
+        }
+        windowStart = next;
+        window = map(next);
+        return true;
+    }
+
+    private MappedByteBuffer map(long position) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+    }
+}
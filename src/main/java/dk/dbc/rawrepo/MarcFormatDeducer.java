@@ -42,9 +42,17 @@ public class MarcFormatDeducer {
     public FORMAT deduce(PushbackInputStream is, Charset encoding) {
         final byte[] buffer = new byte[prologSize];
         try {
-            final int bytesRead = is.read(buffer, 0, prologSize);
+            // A single read may return less than is available, e.g. from a pipe or a decompressing stream
+            int bytesRead = 0;
+            while (bytesRead < prologSize) {
+                final int count = is.read(buffer, bytesRead, prologSize - bytesRead);
+                if (count < 0) {
+                    break;
+                }
+                bytesRead += count;
+            }
             if (bytesRead > 0) {
-                final String prolog = safeToString(buffer, encoding);
+                final String prolog = safeToString(Arrays.copyOf(buffer, bytesRead), encoding);
                 try {
                     if (isMarcxchange(prolog)) {
                         return FORMAT.MARCXCHANGE;
@@ -54,7 +62,7 @@ public class MarcFormatDeducer {
                         return FORMAT.DANMARC2_LINE;
                     }
                 } finally {
-                    is.unread(buffer);
+                    is.unread(buffer, 0, bytesRead);
                 }
             }
         } catch (IOException e) {
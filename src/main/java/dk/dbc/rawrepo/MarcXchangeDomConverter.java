@@ -0,0 +1,117 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.ControlField;
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.Field;
+import dk.dbc.marc.binding.Leader;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Converts MarcRecord instances directly into marcxchange DOM documents.
+ * <p>
+ * The resulting document has the same shape as the output of
+ * {@link dk.dbc.marc.writer.MarcXchangeV1Writer}, but is built from the fields
+ * and subfields of the record without serializing to bytes and parsing them again.
+ * Instances of this class are NOT thread safe.
+ */
+public class MarcXchangeDomConverter {
+    public static final String NAMESPACE = "info:lc/xml/marcxchange-v1";
+    private static final String XMLNS_NAMESPACE = "http://www.w3.org/2000/xmlns/";
+    private static final String PREFIX = "marcx:";
+    static final String FORMAT = "danMARC2";
+    static final String TYPE = "Bibliographic";
+
+    private final DocumentBuilder documentBuilder;
+
+    public MarcXchangeDomConverter() {
+        try {
+            final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setNamespaceAware(true);
+            documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Converts a MarcRecord to a marcxchange DOM document
+     * @param marcRecord record to convert
+     * @return document with a marcxchange record as document element
+     */
+    public Document toDocument(MarcRecord marcRecord) {
+        final Document document = documentBuilder.newDocument();
+        final Element record = document.createElementNS(NAMESPACE, PREFIX + "record");
+        record.setAttributeNS(XMLNS_NAMESPACE, "xmlns:marcx", NAMESPACE);
+        record.setAttribute("format", FORMAT);
+        record.setAttribute("type", TYPE);
+        document.appendChild(record);
+
+        final Leader leader = marcRecord.getLeader();
+        if (leader != null) {
+            final Element leaderElement = document.createElementNS(NAMESPACE, PREFIX + "leader");
+            leaderElement.setTextContent(String.valueOf(leader.getData()));
+            record.appendChild(leaderElement);
+        }
+
+        for (Field field : marcRecord.getFields()) {
+            if (field instanceof ControlField) {
+                record.appendChild(toElement(document, (ControlField) field));
+            } else if (field instanceof DataField) {
+                record.appendChild(toElement(document, (DataField) field));
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Parses a marcxchange record held as bytes, e.g. as cut out of a collection by {@link MarcXchangeSplitter}
+     * @param marcXchange standalone marcxchange document
+     * @return document with a marcxchange record as document element
+     * @throws IllegalArgumentException if the bytes are not a well-formed XML document
+     */
+    public Document parse(byte[] marcXchange) {
+        try {
+            return documentBuilder.parse(new ByteArrayInputStream(marcXchange));
+        } catch (SAXException | IOException e) {
+            throw new IllegalArgumentException("Invalid marcxchange record: " + e.getMessage(), e);
+        }
+    }
+
+    private Element toElement(Document document, ControlField controlField) {
+        final Element element = document.createElementNS(NAMESPACE, PREFIX + "controlfield");
+        element.setAttribute("tag", controlField.getTag());
+        element.setTextContent(controlField.getData());
+        return element;
+    }
+
+    private Element toElement(Document document, DataField dataField) {
+        final Element element = document.createElementNS(NAMESPACE, PREFIX + "datafield");
+        setIndicator(element, "ind1", dataField.getInd1());
+        setIndicator(element, "ind2", dataField.getInd2());
+        setIndicator(element, "ind3", dataField.getInd3());
+        element.setAttribute("tag", dataField.getTag());
+        for (SubField subField : dataField.getSubFields()) {
+            final Element subFieldElement = document.createElementNS(NAMESPACE, PREFIX + "subfield");
+            subFieldElement.setAttribute("code", String.valueOf(subField.getCode()));
+            subFieldElement.setTextContent(subField.getData());
+            element.appendChild(subFieldElement);
+        }
+        return element;
+    }
+
+    private void setIndicator(Element element, String name, Character value) {
+        if (value != null) {
+            element.setAttribute(name, String.valueOf(value));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.ControlField;
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.Leader;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import dk.dbc.marc.reader.MarcReaderException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.function.IntSupplier;
+
+/**
+ * Cuts the records out of marcxchange input without building MarcRecord objects.
+ * <p>
+ * The input is read with a StAX stream reader, and every marcxchange record element is copied
+ * event by event into a standalone UTF-8 document, with the namespaces it uses declared on
+ * the record element. Picking up 001 *a and *b on the way is the only interpretation done,
+ * so the reading thread does little work per record and the workers parse the bytes
+ * straight into the DOM sent to updateservice.
+ * <p>
+ * Like {@link dk.dbc.marc.writer.MarcXchangeV1Writer} the format and type attributes of
+ * the record are always set to danMARC2 and Bibliographic, and whitespace between fields
+ * and subfields is left out. Instances of this class are NOT thread safe.
+ */
+public class MarcXchangeSplitter implements UpdateServiceHandler.RecordSource {
+    private static final String RECORD = "record";
+    private static final String DATAFIELD = "datafield";
+    private static final String SUBFIELD = "subfield";
+    private static final String CONTROLFIELD = "controlfield";
+    private static final String LEADER = "leader";
+
+    // Factories are not guaranteed to be thread safe, and toMarcRecord is called from several readers
+    private static final ThreadLocal<XMLInputFactory> RECORD_INPUT_FACTORY = ThreadLocal.withInitial(() -> {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return inputFactory;
+    });
+
+    private final XMLStreamReader reader;
+    private final XMLOutputFactory outputFactory;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+
+    /**
+     * @param is marcxchange input, either a collection or a single record
+     * @param encoding encoding of the input
+     * @throws MarcReaderException if the input could not be opened as XML
+     */
+    public MarcXchangeSplitter(InputStream is, Charset encoding) throws MarcReaderException {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        outputFactory = XMLOutputFactory.newInstance();
+        outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+        try {
+            reader = inputFactory.createXMLStreamReader(is, encoding.name());
+        } catch (XMLStreamException e) {
+            throw new MarcReaderException("Could not read marcxchange input: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public InputRecord read(IntSupplier nextOrdinal) throws MarcReaderException {
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && MarcXchangeDomConverter.NAMESPACE.equals(reader.getNamespaceURI())
+                        && RECORD.equals(reader.getLocalName())) {
+                    return copyRecord(nextOrdinal.getAsInt());
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new MarcReaderException("Could not read marcxchange input: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private InputRecord copyRecord(int ordinal) throws XMLStreamException {
+        buffer.reset();
+        final XMLStreamWriter writer = outputFactory.createXMLStreamWriter(buffer, "UTF-8");
+        String bibliographicRecordId = RecordId.UNKNOWN;
+        String agencyId = RecordId.UNKNOWN;
+        final StringBuilder text = new StringBuilder();
+        boolean inDataField = false;
+        String tag = null;
+        String code = null;
+        int depth = 0;
+        int event = reader.getEventType();
+        while (true) {
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    copyStartElement(writer, depth == 0);
+                    depth++;
+                    if (depth == 2) {
+                        inDataField = DATAFIELD.equals(reader.getLocalName());
+                        tag = reader.getAttributeValue(null, "tag");
+                    } else if (depth == 3 && inDataField && SUBFIELD.equals(reader.getLocalName())) {
+                        code = reader.getAttributeValue(null, "code");
+                        text.setLength(0);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth == 3 && inDataField && "001".equals(tag)) {
+                        if ("a".equals(code)) {
+                            bibliographicRecordId = text.toString();
+                        } else if ("b".equals(code)) {
+                            agencyId = text.toString();
+                        }
+                    }
+                    writer.writeEndElement();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    // Whitespace between fields and subfields is formatting, not data
+                    if ((depth == 1 || depth == 2 && inDataField) && reader.isWhiteSpace()) {
+                        break;
+                    }
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    if (depth == 3) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                default:
+                    // Comments and processing instructions are left out
+                    break;
+            }
+            if (depth == 0) {
+                break;
+            }
+            event = reader.next();
+        }
+        writer.writeEndDocument();
+        writer.close();
+        return new InputRecord(ordinal, buffer.toByteArray(), new RecordId(bibliographicRecordId, agencyId));
+    }
+
+    /**
+     * Builds a MarcRecord from a record cut out by this class, for when the fields of the record
+     * are needed on the reading side, e.g. by a {@link RecordValidator}.
+     * Indicators are not kept, so the result is not meant to be sent.
+     * @param marcXchange standalone marcxchange record
+     * @return the fields of the record
+     * @throws IllegalArgumentException if the bytes are not a well-formed XML document
+     */
+    static MarcRecord toMarcRecord(byte[] marcXchange) {
+        final MarcRecord marcRecord = new MarcRecord();
+        try {
+            final XMLStreamReader recordReader = RECORD_INPUT_FACTORY.get()
+                    .createXMLStreamReader(new ByteArrayInputStream(marcXchange));
+            DataField dataField = null;
+            while (recordReader.hasNext()) {
+                if (recordReader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                final String localName = recordReader.getLocalName();
+                if (LEADER.equals(localName)) {
+                    marcRecord.setLeader(new Leader().setData(recordReader.getElementText().toCharArray()));
+                } else if (CONTROLFIELD.equals(localName)) {
+                    final String tag = recordReader.getAttributeValue(null, "tag");
+                    marcRecord.addField(new ControlField(tag, recordReader.getElementText()));
+                } else if (DATAFIELD.equals(localName)) {
+                    dataField = new DataField(recordReader.getAttributeValue(null, "tag"), "00");
+                    marcRecord.addField(dataField);
+                } else if (SUBFIELD.equals(localName) && dataField != null) {
+                    final String code = recordReader.getAttributeValue(null, "code");
+                    dataField.addSubField(new SubField(code != null && !code.isEmpty() ? code.charAt(0) : ' ',
+                            recordReader.getElementText()));
+                }
+            }
+            recordReader.close();
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid marcxchange record: " + e.getMessage(), e);
+        }
+        return marcRecord;
+    }
+
+    private void copyStartElement(XMLStreamWriter writer, boolean isRecord) throws XMLStreamException {
+        writer.writeStartElement(nonNull(reader.getPrefix()), reader.getLocalName(), nonNull(reader.getNamespaceURI()));
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            final String namespace = nonNull(reader.getAttributeNamespace(i));
+            final String localName = reader.getAttributeLocalName(i);
+            if (isRecord && namespace.isEmpty() && ("format".equals(localName) || "type".equals(localName))) {
+                continue;
+            }
+            writer.writeAttribute(nonNull(reader.getAttributePrefix(i)), namespace, localName, reader.getAttributeValue(i));
+        }
+        if (isRecord) {
+            writer.writeAttribute("format", MarcXchangeDomConverter.FORMAT);
+            writer.writeAttribute("type", MarcXchangeDomConverter.TYPE);
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+}
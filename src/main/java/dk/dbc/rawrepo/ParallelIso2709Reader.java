@@ -0,0 +1,190 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.reader.Iso2709Reader;
+import dk.dbc.marc.reader.MarcReader;
+import dk.dbc.marc.reader.MarcReaderException;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MarcReader parsing ISO2709 input on several threads.
+ * <p>
+ * A splitter thread reads the input in chunks of about {@link #CHUNK_SIZE} bytes, each cut
+ * right after a record terminator, so every chunk holds whole records only. The chunks are
+ * parsed by a pool of threads, each with its own {@link Iso2709Reader}, and {@link #read()}
+ * hands out the parsed records either in input order or in the order the chunks finish.
+ * At most a few chunks per parser thread are buffered, so memory use stays bounded.
+ * <p>
+ * A record which can't be parsed fails the whole read, as it does with a plain Iso2709Reader.
+ * Only {@link #read()} and {@link #close()} may be called, and only from one thread.
+ */
+public class ParallelIso2709Reader implements MarcReader, Closeable {
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final byte RECORD_TERMINATOR = 0x1D;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final Future<List<MarcRecord>> END_OF_INPUT = completed(Collections::emptyList);
+
+    private final InputStream is;
+    private final Charset encoding;
+    private final boolean ordered;
+    private final ExecutorService parsers;
+    private final Thread splitter;
+    private final Semaphore chunkPermits;
+    private final BlockingQueue<Future<List<MarcRecord>>> parsed = new LinkedBlockingQueue<>();
+
+    private Iterator<MarcRecord> current = Collections.emptyIterator();
+    private int chunksTaken = 0;
+    // Set by the splitter when it reaches the end of the input
+    private volatile int chunkCount = -1;
+
+    /**
+     * @param is input holding ISO2709 records
+     * @param encoding encoding of the records
+     * @param threads number of parser threads
+     * @param ordered true if records must be read in input order
+     */
+    public ParallelIso2709Reader(InputStream is, Charset encoding, int threads, boolean ordered) {
+        this.is = is;
+        this.encoding = encoding;
+        this.ordered = ordered;
+        this.chunkPermits = new Semaphore(threads * CHUNKS_PER_THREAD);
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        this.parsers = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "iso2709-parser-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.splitter = new Thread(this::split, "iso2709-splitter");
+        this.splitter.setDaemon(true);
+        this.splitter.start();
+    }
+
+    @Override
+    public MarcRecord read() throws MarcReaderException {
+        while (!current.hasNext()) {
+            if (chunksTaken == chunkCount) {
+                return null;
+            }
+            try {
+                final Future<List<MarcRecord>> chunk = parsed.take();
+                if (chunk != END_OF_INPUT) {
+                    current = chunk.get().iterator();
+                    chunksTaken++;
+                    chunkPermits.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MarcReaderException("Interrupted while waiting for parsed records", e);
+            } catch (ExecutionException e) {
+                throw new MarcReaderException("Could not read ISO2709 input: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        splitter.interrupt();
+        parsers.shutdownNow();
+    }
+
+    private void split() {
+        int chunks = 0;
+        try {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int length = 0;
+            int count;
+            while ((count = is.read(buffer, length, buffer.length - length)) >= 0) {
+                length += count;
+                if (length < buffer.length) {
+                    continue;
+                }
+                final int end = lastRecordEnd(buffer, length);
+                if (end > 0) {
+                    submit(Arrays.copyOf(buffer, end));
+                    chunks++;
+                    System.arraycopy(buffer, end, buffer, 0, length - end);
+                    length -= end;
+                } else {
+                    // A single record larger than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            if (length > 0) {
+                // Trailing bytes without a record terminator are left for the Iso2709Reader to judge
+                submit(Arrays.copyOf(buffer, length));
+                chunks++;
+            }
+            chunkCount = chunks;
+            parsed.add(END_OF_INPUT);
+        } catch (InterruptedException e) {
+            // Closed before the end of the input
+        } catch (IOException | RuntimeException e) {
+            parsed.add(completed(() -> {
+                throw e;
+            }));
+        }
+    }
+
+    private void submit(byte[] chunk) throws InterruptedException {
+        chunkPermits.acquire();
+        final FutureTask<List<MarcRecord>> task = new FutureTask<List<MarcRecord>>(() -> parse(chunk)) {
+            @Override
+            protected void done() {
+                if (!ordered) {
+                    parsed.add(this);
+                }
+            }
+        };
+        if (ordered) {
+            parsed.add(task);
+        }
+        parsers.execute(task);
+    }
+
+    private List<MarcRecord> parse(byte[] chunk) throws MarcReaderException {
+        final Iso2709Reader reader = new Iso2709Reader(new ByteArrayInputStream(chunk), encoding);
+        final List<MarcRecord> records = new ArrayList<>();
+        MarcRecord marcRecord = reader.read();
+        while (marcRecord != null) {
+            records.add(marcRecord);
+            marcRecord = reader.read();
+        }
+        return records;
+    }
+
+    private static int lastRecordEnd(byte[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == RECORD_TERMINATOR) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static Future<List<MarcRecord>> completed(Callable<List<MarcRecord>> callable) {
+        final FutureTask<List<MarcRecord>> future = new FutureTask<>(callable);
+        future.run();
+        return future;
+    }
+}
@@ -0,0 +1,150 @@
+package dk.dbc.rawrepo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces the calls to updateservice, so that a job doesn't flood the queues of rawrepo.
+ * <p>
+ * The number of calls started per second is limited by a token bucket. Tokens are added at the
+ * allowed rate and a call takes one token, waiting for it if the bucket is empty. The bucket
+ * holds at most {@link #BURST_SECONDS} worth of tokens, so an idle period is not followed by
+ * a burst of calls. The number of calls in flight is limited independently of the concurrency,
+ * so that a job can be slowed down without starting it again.
+ * <p>
+ * The limits follow a {@link RateSchedule}, which is looked up at most once every
+ * {@link #SCHEDULE_CHECK_MILLIS} ms. Instances of this class are thread safe. Waiting is done on
+ * a {@link ReentrantLock} for the same reason as in {@link ConcurrencyLimiter}.
+ */
+public class RateLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimiter.class);
+
+    static final double BURST_SECONDS = 0.1;
+    static final long SCHEDULE_CHECK_MILLIS = 1000;
+    private static final long SCHEDULE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(SCHEDULE_CHECK_MILLIS);
+
+    private final RateSchedule schedule;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private RateSchedule.Limits limits;
+    private double tokens;
+    private long lastRefill;
+    private long nextScheduleCheck;
+    private int inFlight = 0;
+    private int delayedCount = 0;
+
+    /**
+     * @param schedule limits to follow
+     */
+    public RateLimiter(RateSchedule schedule) {
+        this.schedule = schedule;
+        this.limits = schedule.getLimitsAt(LocalDateTime.now());
+        this.lastRefill = System.nanoTime();
+        this.nextScheduleCheck = lastRefill + SCHEDULE_CHECK_NANOS;
+        this.tokens = getBurst(limits);
+        LOGGER.info("Rate limit: {}", limits);
+    }
+
+    /**
+     * @return the limits currently applying
+     */
+    public RateSchedule.Limits getLimits() {
+        lock.lock();
+        try {
+            return limits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of calls which had to wait for the limits
+     */
+    public int getDelayedCount() {
+        lock.lock();
+        try {
+            return delayedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a call is allowed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            boolean delayed = false;
+            while (true) {
+                final long now = System.nanoTime();
+                refresh(now);
+                final boolean inFlightAllowed = limits.getMaxInFlight() == 0 || inFlight < limits.getMaxInFlight();
+                final boolean rateAllowed = limits.getRequestsPerSecond() == 0 || tokens >= 1;
+                if (inFlightAllowed && rateAllowed) {
+                    if (limits.getRequestsPerSecond() > 0) {
+                        tokens--;
+                    }
+                    inFlight++;
+                    if (delayed) {
+                        delayedCount++;
+                    }
+                    return;
+                }
+                // Wake up in time for the schedule to change even if nothing else happens
+                long timeout = nextScheduleCheck - now;
+                if (inFlightAllowed) {
+                    final double secondsToToken = (1 - tokens) / limits.getRequestsPerSecond();
+                    timeout = Math.min(timeout, (long) Math.ceil(secondsToToken * 1e9));
+                }
+                delayed = true;
+                permitAvailable.awaitNanos(Math.max(1, timeout));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a call as completed
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refresh(long now) {
+        if (now - nextScheduleCheck >= 0) {
+            nextScheduleCheck = now + SCHEDULE_CHECK_NANOS;
+            final RateSchedule.Limits scheduled = schedule.getLimitsAt(LocalDateTime.now());
+            if (!scheduled.equals(limits)) {
+                LOGGER.info("Rate limit changed from {} to {}", limits, scheduled);
+                limits = scheduled;
+                tokens = Math.min(tokens, getBurst(limits));
+                // More calls may be allowed in flight now
+                permitAvailable.signalAll();
+            }
+        }
+        if (limits.getRequestsPerSecond() > 0) {
+            final double elapsedSeconds = (now - lastRefill) / 1e9;
+            tokens = Math.min(getBurst(limits), tokens + elapsedSeconds * limits.getRequestsPerSecond());
+        }
+        lastRefill = now;
+    }
+
+    private static double getBurst(RateSchedule.Limits limits) {
+        return Math.max(1, limits.getRequestsPerSecond() * BURST_SECONDS);
+    }
+}
@@ -0,0 +1,253 @@
+package dk.dbc.rawrepo;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Time of day schedule of the limits on calls to updateservice.
+ * <p>
+ * A schedule is a comma separated list of windows like {@code mon-fri 08:00-17:00=20/4},
+ * meaning at most 20 calls per second and at most 4 calls in flight on weekdays from 8 to 17.
+ * The days are optional and are either a single day or a range of days. The number of calls
+ * in flight is optional too. A window ending before it starts runs past midnight, and the
+ * part after midnight belongs to the day the window started. 0 means no limit.
+ * <p>
+ * The first window containing the current time applies, and outside all windows the default
+ * limits apply. Instances of this class are immutable.
+ */
+public class RateSchedule {
+    private static final Pattern WINDOW = Pattern.compile(
+            "(?:([a-z]{3})(?:-([a-z]{3}))?\\s+)?(\\d{1,2}:\\d{2})-(\\d{1,2}:\\d{2})=(\\d+(?:\\.\\d+)?)(?:/(\\d+))?");
+
+    private final Limits defaultLimits;
+    private final List<Window> windows;
+
+    /**
+     * @param defaultLimits limits outside all windows
+     * @param windows windows with other limits, the first containing the current time applies
+     */
+    public RateSchedule(Limits defaultLimits, List<Window> windows) {
+        this.defaultLimits = defaultLimits;
+        this.windows = Collections.unmodifiableList(new ArrayList<>(windows));
+    }
+
+    /**
+     * @param limits limits applying all the time
+     * @return schedule without windows
+     */
+    public static RateSchedule constant(Limits limits) {
+        return new RateSchedule(limits, Collections.emptyList());
+    }
+
+    /**
+     * @param schedule windows as described in the class documentation, may be null
+     * @param defaultLimits limits outside all windows
+     * @return the schedule
+     * @throws IllegalArgumentException if the schedule could not be parsed
+     */
+    public static RateSchedule parse(String schedule, Limits defaultLimits) throws IllegalArgumentException {
+        final List<Window> windows = new ArrayList<>();
+        if (schedule != null && !schedule.trim().isEmpty()) {
+            for (String window : schedule.split(",")) {
+                windows.add(parseWindow(window.trim()));
+            }
+        }
+        return new RateSchedule(defaultLimits, windows);
+    }
+
+    /**
+     * @return true if no window or default ever limits the calls
+     */
+    public boolean isUnlimited() {
+        return defaultLimits.isUnlimited() && windows.stream().allMatch(window -> window.getLimits().isUnlimited());
+    }
+
+    /**
+     * @param time local time
+     * @return the limits applying at the given time
+     */
+    public Limits getLimitsAt(LocalDateTime time) {
+        for (Window window : windows) {
+            if (window.contains(time)) {
+                return window.getLimits();
+            }
+        }
+        return defaultLimits;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder stringBuilder = new StringBuilder(defaultLimits.toString());
+        for (Window window : windows) {
+            stringBuilder.append(", ").append(window);
+        }
+        return stringBuilder.toString();
+    }
+
+    private static Window parseWindow(String window) {
+        final Matcher matcher = WINDOW.matcher(window.toLowerCase(Locale.ROOT));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid rate schedule window '" + window +
+                    "', expected e.g. 'mon-fri 08:00-17:00=20/4'");
+        }
+        final Set<DayOfWeek> days;
+        if (matcher.group(1) == null) {
+            days = EnumSet.allOf(DayOfWeek.class);
+        } else {
+            final DayOfWeek firstDay = parseDay(matcher.group(1), window);
+            final DayOfWeek lastDay = matcher.group(2) != null ? parseDay(matcher.group(2), window) : firstDay;
+            days = EnumSet.noneOf(DayOfWeek.class);
+            // Ranges like sat-mon wrap around the end of the week
+            for (DayOfWeek day = firstDay; ; day = day.plus(1)) {
+                days.add(day);
+                if (day == lastDay) {
+                    break;
+                }
+            }
+        }
+        try {
+            final LocalTime from = LocalTime.parse(padHour(matcher.group(3)));
+            final LocalTime to = LocalTime.parse(padHour(matcher.group(4)));
+            final double requestsPerSecond = Double.parseDouble(matcher.group(5));
+            final int maxInFlight = matcher.group(6) != null ? Integer.parseInt(matcher.group(6)) : 0;
+            return new Window(days, from, to, new Limits(requestsPerSecond, maxInFlight));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate schedule window '" + window + "': " + e.getMessage());
+        }
+    }
+
+    private static DayOfWeek parseDay(String day, String window) {
+        for (DayOfWeek dayOfWeek : DayOfWeek.values()) {
+            if (dayOfWeek.name().toLowerCase(Locale.ROOT).startsWith(day)) {
+                return dayOfWeek;
+            }
+        }
+        throw new IllegalArgumentException("Invalid day '" + day + "' in rate schedule window '" + window + "'");
+    }
+
+    private static String padHour(String time) {
+        return time.length() == 4 ? "0" + time : time;
+    }
+
+    /**
+     * Limits on the calls to updateservice
+     */
+    public static class Limits {
+        public static final Limits UNLIMITED = new Limits(0, 0);
+
+        private final double requestsPerSecond;
+        private final int maxInFlight;
+
+        /**
+         * @param requestsPerSecond max number of calls started per second, 0 means no limit
+         * @param maxInFlight max number of calls in flight, 0 means no limit
+         */
+        public Limits(double requestsPerSecond, int maxInFlight) {
+            if (requestsPerSecond < 0 || maxInFlight < 0) {
+                throw new IllegalArgumentException(String.format(Locale.ROOT,
+                        "Invalid rate limits: %s requests/s, %d in flight", requestsPerSecond, maxInFlight));
+            }
+            this.requestsPerSecond = requestsPerSecond;
+            this.maxInFlight = maxInFlight;
+        }
+
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public boolean isUnlimited() {
+            return requestsPerSecond == 0 && maxInFlight == 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Limits limits = (Limits) o;
+            return Double.compare(limits.requestsPerSecond, requestsPerSecond) == 0 && maxInFlight == limits.maxInFlight;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Double.hashCode(requestsPerSecond) + maxInFlight;
+        }
+
+        @Override
+        public String toString() {
+            if (isUnlimited()) {
+                return "unlimited";
+            }
+            final String rate;
+            if (requestsPerSecond == 0) {
+                rate = "unlimited";
+            } else if (requestsPerSecond == Math.rint(requestsPerSecond)) {
+                rate = Long.toString((long) requestsPerSecond);
+            } else {
+                rate = Double.toString(requestsPerSecond);
+            }
+            return rate + " requests/s, " + (maxInFlight > 0 ? maxInFlight : "unlimited") + " in flight";
+        }
+    }
+
+    /**
+     * Period of the week with its own limits
+     */
+    public static class Window {
+        private final Set<DayOfWeek> days;
+        private final LocalTime from;
+        private final LocalTime to;
+        private final Limits limits;
+
+        /**
+         * @param days days on which the window starts
+         * @param from start of the window
+         * @param to end of the window, exclusive, may be before the start if the window runs past midnight
+         * @param limits limits within the window
+         */
+        public Window(Set<DayOfWeek> days, LocalTime from, LocalTime to, Limits limits) {
+            this.days = EnumSet.copyOf(days);
+            this.from = from;
+            this.to = to;
+            this.limits = limits;
+        }
+
+        public Limits getLimits() {
+            return limits;
+        }
+
+        boolean contains(LocalDateTime dateTime) {
+            final LocalTime time = dateTime.toLocalTime();
+            final DayOfWeek day = dateTime.getDayOfWeek();
+            if (from.isBefore(to)) {
+                return days.contains(day) && !time.isBefore(from) && time.isBefore(to);
+            }
+            // Past midnight, or the whole day if from and to are equal
+            return days.contains(day) && !time.isBefore(from)
+                    || days.contains(day.minus(1)) && time.isBefore(to);
+        }
+
+        @Override
+        public String toString() {
+            final String dayNames = days.size() == DayOfWeek.values().length ? "" : days + " ";
+            return dayNames + from + "-" + to + ": " + limits;
+        }
+    }
+}
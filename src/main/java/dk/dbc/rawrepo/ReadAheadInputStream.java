@@ -0,0 +1,148 @@
+package dk.dbc.rawrepo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * InputStream reading its source ahead on a separate thread.
+ * <p>
+ * The source is read in blocks of {@link #BLOCK_SIZE} bytes, and at most {@link #BLOCKS_AHEAD}
+ * blocks are buffered, so a source doing real work per byte, like a decompressor, runs in
+ * parallel with the thread consuming the bytes. Block arrays are recycled, so reading allocates
+ * nothing once the buffer is full. An exception from the source is thrown by the read reaching
+ * the point where it happened. Instances of this class are NOT thread safe.
+ */
+public class ReadAheadInputStream extends InputStream {
+    static final int BLOCK_SIZE = 1024 * 1024;
+    static final int BLOCKS_AHEAD = 4;
+
+    private static final Block END_OF_INPUT = new Block(new byte[0], 0);
+
+    private final InputStream source;
+    private final Thread reader;
+    private final BlockingQueue<Block> filled = new ArrayBlockingQueue<>(BLOCKS_AHEAD + 1);
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(BLOCKS_AHEAD + 2);
+
+    private Block current = new Block(new byte[0], 0);
+    private int position = 0;
+    private boolean ended = false;
+    private volatile boolean closed = false;
+    private volatile IOException readError;
+
+    /**
+     * @param source input to read ahead, it is closed with this stream
+     */
+    public ReadAheadInputStream(InputStream source) {
+        this.source = source;
+        this.reader = new Thread(this::readAhead, "read-ahead");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return current.bytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        final int count = Math.min(len, current.length - position);
+        System.arraycopy(current.bytes, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reader.interrupt();
+        source.close();
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        while (position == current.length) {
+            if (ended) {
+                return false;
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            free.offer(current.bytes);
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for input", e);
+            }
+            position = 0;
+            if (current == END_OF_INPUT) {
+                ended = true;
+                if (readError != null) {
+                    throw readError;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void readAhead() {
+        try {
+            while (true) {
+                byte[] bytes = free.poll();
+                if (bytes == null || bytes.length != BLOCK_SIZE) {
+                    bytes = new byte[BLOCK_SIZE];
+                }
+                final int length = source.readNBytes(bytes, 0, BLOCK_SIZE);
+                if (length > 0) {
+                    filled.put(new Block(bytes, length));
+                }
+                if (length < BLOCK_SIZE) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException | RuntimeException e) {
+            if (closed) {
+                return;
+            }
+            readError = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+        try {
+            filled.put(END_OF_INPUT);
+        } catch (InterruptedException e) {
+            // Closed before the end of the input was read
+        }
+    }
+
+    private static class Block {
+        private final byte[] bytes;
+        private final int length;
+
+        private Block(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+
+import java.util.Optional;
+
+/**
+ * Identity of a record as given by 001 *a (record id) and 001 *b (agency id).
+ * Missing values are reported as "unknown".
+ */
+public class RecordId {
+    static final String UNKNOWN = "unknown";
+
+    private final String bibliographicRecordId;
+    private final String agencyId;
+
+    RecordId(String bibliographicRecordId, String agencyId) {
+        this.bibliographicRecordId = bibliographicRecordId;
+        this.agencyId = agencyId;
+    }
+
+    public static RecordId of(MarcRecord marcRecord) {
+        String recordId = UNKNOWN;
+        String recordAgencyId = UNKNOWN;
+        final Optional<DataField> field001 = marcRecord.getField(DataField.class, MarcRecord.hasTag("001"));
+        if (field001.isPresent()) {
+            for (SubField subField : field001.get().getSubFields()) {
+                if (subField.getCode() == 'a') {
+                    recordId = subField.getData();
+                }
+
+                if (subField.getCode() == 'b') {
+                    recordAgencyId = subField.getData();
+                }
+            }
+        }
+        return new RecordId(recordId, recordAgencyId);
+    }
+
+    public String getBibliographicRecordId() {
+        return bibliographicRecordId;
+    }
+
+    public String getAgencyId() {
+        return agencyId;
+    }
+
+    @Override
+    public String toString() {
+        return bibliographicRecordId + ":" + agencyId;
+    }
+}
@@ -0,0 +1,240 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.MarcRecord;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the template, provider and priority of each record from its content, so that
+ * a file mixing e.g. common records and local records can be sent in one pass.
+ * <p>
+ * The rules are read from a file with a rule per line:
+ * <pre>
+ * # SELECTIONS -&gt; SETTINGS
+ * 001b=870970            -&gt; template=dbc provider=dataio-update priority=1000
+ * 001b~7\d{5} 004a=e     -&gt; template=ffu provider=dataio-ffu priority=500
+ * *                      -&gt; priority=1000
+ * </pre>
+ * The selections are the expressions of {@link RecordValidator#parseSelection(String)},
+ * separated by whitespace, and a record must match all of them. A star matches all records.
+ * The first rule matching a record applies. Settings left out of a rule, and all settings of
+ * records not matching any rule, are taken from the command line.
+ * Instances of this class are thread safe.
+ */
+public class RecordRouter {
+    private static final String ARROW = "->";
+    private static final String ANY = "*";
+
+    private final Route defaultRoute;
+    private final List<Rule> rules;
+
+    /**
+     * @param defaultRoute route of the records not matching any rule
+     */
+    public RecordRouter(Route defaultRoute) {
+        this(defaultRoute, Collections.emptyList());
+    }
+
+    private RecordRouter(Route defaultRoute, List<Rule> rules) {
+        this.defaultRoute = defaultRoute;
+        this.rules = rules;
+    }
+
+    /**
+     * @param path file with the rules
+     * @param defaultRoute settings of the records not matching any rule, and of settings left out of a rule
+     * @return router following the rules of the file
+     * @throws IOException if the file could not be read
+     * @throws IllegalArgumentException if a rule could not be parsed
+     */
+    public static RecordRouter load(Path path, Route defaultRoute) throws IOException, IllegalArgumentException {
+        return parse(Files.readAllLines(path, StandardCharsets.UTF_8), defaultRoute);
+    }
+
+    /**
+     * @param lines rules as described in the class documentation
+     * @param defaultRoute settings of the records not matching any rule, and of settings left out of a rule
+     * @return router following the rules
+     * @throws IllegalArgumentException if a rule could not be parsed
+     */
+    public static RecordRouter parse(List<String> lines, Route defaultRoute) throws IllegalArgumentException {
+        final List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(parseRule(line, defaultRoute));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid routing rule in line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return new RecordRouter(defaultRoute, rules);
+    }
+
+    /**
+     * @param marcRecord record to route
+     * @return the route of the record
+     */
+    public Route route(MarcRecord marcRecord) {
+        for (Rule rule : rules) {
+            if (rule.matches(marcRecord)) {
+                return rule.route;
+            }
+        }
+        return defaultRoute;
+    }
+
+    /**
+     * @return true if every record takes the default route, so there is no need to look at the records
+     */
+    public boolean isStatic() {
+        return rules.isEmpty();
+    }
+
+    public Route getDefaultRoute() {
+        return defaultRoute;
+    }
+
+    /**
+     * @return the routes of all rules followed by the default route
+     */
+    public List<Route> getRoutes() {
+        final List<Route> routes = new ArrayList<>();
+        for (Rule rule : rules) {
+            routes.add(rule.route);
+        }
+        routes.add(defaultRoute);
+        return routes;
+    }
+
+    private static Rule parseRule(String line, Route defaultRoute) {
+        final int arrow = line.indexOf(ARROW);
+        if (arrow < 0) {
+            throw new IllegalArgumentException("Expected 'SELECTIONS " + ARROW + " SETTINGS' but got '" + line + "'");
+        }
+        final String selections = line.substring(0, arrow).trim();
+        final String settings = line.substring(arrow + ARROW.length()).trim();
+        if (selections.isEmpty() || settings.isEmpty()) {
+            throw new IllegalArgumentException("Expected 'SELECTIONS " + ARROW + " SETTINGS' but got '" + line + "'");
+        }
+
+        final List<RecordValidator.Rule> rules = new ArrayList<>();
+        if (!ANY.equals(selections)) {
+            for (String selection : selections.split("\\s+")) {
+                rules.add(RecordValidator.parseSelection(selection));
+            }
+        }
+
+        String template = defaultRoute.getTemplate();
+        String provider = defaultRoute.getProvider();
+        Integer priority = defaultRoute.getPriority();
+        for (String setting : settings.split("\\s+")) {
+            final int equals = setting.indexOf('=');
+            final String key = equals > 0 ? setting.substring(0, equals) : setting;
+            final String value = equals > 0 ? setting.substring(equals + 1) : "";
+            if (value.isEmpty()) {
+                throw new IllegalArgumentException("Expected KEY=VALUE but got '" + setting + "'");
+            }
+            switch (key) {
+                case "template":
+                    template = value;
+                    break;
+                case "provider":
+                    provider = value;
+                    break;
+                case "priority":
+                    try {
+                        priority = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Priority must be a number but got '" + value + "'");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown setting '" + key + "', expected template, provider or priority");
+            }
+        }
+        return new Rule(rules, new Route(selections, template, provider, priority));
+    }
+
+    /**
+     * Settings of the records taking the same route, together with the number of records sent that way
+     */
+    public static final class Route {
+        private final String name;
+        private final String template;
+        private final String provider;
+        private final Integer priority;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        /**
+         * @param name name of the route in the summary, e.g. the selections of the rule
+         * @param template template to use when calling update
+         * @param provider provider to use when calling update, may be null
+         * @param priority priority to use when calling update, may be null
+         */
+        public Route(String name, String template, String provider, Integer priority) {
+            this.name = name;
+            this.template = template;
+            this.provider = provider;
+            this.priority = priority;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTemplate() {
+            return template;
+        }
+
+        public String getProvider() {
+            return provider;
+        }
+
+        public Integer getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return number of records which took this route
+         */
+        public AtomicInteger getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return "template " + template +
+                    (provider != null ? ", provider " + provider : "") +
+                    (priority != null ? ", priority " + priority : "");
+        }
+    }
+
+    private static final class Rule {
+        private final List<RecordValidator.Rule> selections;
+        private final Route route;
+
+        private Rule(List<RecordValidator.Rule> selections, Route route) {
+            this.selections = selections;
+            this.route = route;
+        }
+
+        private boolean matches(MarcRecord marcRecord) {
+            for (RecordValidator.Rule selection : selections) {
+                if (selection.check(marcRecord) != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
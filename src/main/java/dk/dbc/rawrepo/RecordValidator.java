@@ -0,0 +1,226 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.ControlField;
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.Field;
+import dk.dbc.marc.binding.Leader;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Checks records on the reading side, so that records which updateservice would reject
+ * for structural reasons, or which are not wanted at all, never cost a call.
+ * <p>
+ * A validator has two kinds of rules. Checks, like {@link #hasRecordId()}, find records which
+ * are broken. Selections, like {@code 001b=870970}, find records which are not to be sent.
+ * A record is sent only if it passes all checks and matches all selections.
+ * <p>
+ * A selection is written {@code TAGc=VALUE}, {@code TAGc!=VALUE} or {@code TAGc~REGEX}, where
+ * TAG is a field and c a subfield. {@code =} and {@code ~} match if any of the subfields matches,
+ * {@code !=} matches if none of them has the value. Without the subfield code the data of a control
+ * field is matched. Instances of this class are immutable once built and thread safe.
+ */
+public class RecordValidator {
+    private static final Pattern SELECTION = Pattern.compile("(\\w{3})(\\w)?(=|!=|~)(.*)");
+
+    /**
+     * Rule for a record
+     */
+    public interface Rule {
+        /**
+         * @param marcRecord record to check
+         * @return why the record doesn't pass, or null if it passes
+         */
+        String check(MarcRecord marcRecord);
+    }
+
+    private final List<Rule> checks = new ArrayList<>();
+    private final List<Rule> selections = new ArrayList<>();
+
+    /**
+     * @return validator with the structural checks updateservice requires of every record
+     */
+    public static RecordValidator withDefaultChecks() {
+        return new RecordValidator()
+                .withCheck(hasRecordId())
+                .withCheck(hasFields())
+                .withCheck(hasValidLeader());
+    }
+
+    public RecordValidator withCheck(Rule check) {
+        checks.add(check);
+        return this;
+    }
+
+    public RecordValidator withSelection(Rule selection) {
+        selections.add(selection);
+        return this;
+    }
+
+    /**
+     * @param selections selection expressions as described in the class documentation
+     * @return this validator
+     * @throws IllegalArgumentException if an expression could not be parsed
+     */
+    public RecordValidator withSelections(List<String> selections) throws IllegalArgumentException {
+        for (String selection : selections != null ? selections : Collections.<String>emptyList()) {
+            withSelection(parseSelection(selection));
+        }
+        return this;
+    }
+
+    public boolean hasSelections() {
+        return !selections.isEmpty();
+    }
+
+    /**
+     * @param inputRecord record to check
+     * @return result of the checks, or null if the record is to be sent
+     */
+    Rejection validate(InputRecord inputRecord) {
+        if (checks.isEmpty() && selections.isEmpty()) {
+            return null;
+        }
+        final MarcRecord marcRecord = inputRecord.toMarcRecord();
+        for (Rule check : checks) {
+            final String reason = check.check(marcRecord);
+            if (reason != null) {
+                return new Rejection(reason, false);
+            }
+        }
+        for (Rule selection : selections) {
+            final String reason = selection.check(marcRecord);
+            if (reason != null) {
+                return new Rejection(reason, true);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return check rejecting records without 001 *a or *b
+     */
+    public static Rule hasRecordId() {
+        return marcRecord -> {
+            final RecordId recordId = RecordId.of(marcRecord);
+            if (RecordId.UNKNOWN.equals(recordId.getBibliographicRecordId())) {
+                return "Missing 001 *a";
+            }
+            if (RecordId.UNKNOWN.equals(recordId.getAgencyId())) {
+                return "Missing 001 *b";
+            }
+            return null;
+        };
+    }
+
+    /**
+     * @return check rejecting records without any field but 001
+     */
+    public static Rule hasFields() {
+        return marcRecord -> {
+            for (Field field : marcRecord.getFields()) {
+                if (!"001".equals(field.getTag())) {
+                    return null;
+                }
+            }
+            return "Empty record, no fields but 001";
+        };
+    }
+
+    /**
+     * @return check rejecting records with a leader which is not 24 characters
+     */
+    public static Rule hasValidLeader() {
+        return marcRecord -> {
+            final Leader leader = marcRecord.getLeader();
+            if (leader != null && leader.getData() != null && leader.getData().length != 24) {
+                return "Invalid leader of " + leader.getData().length + " characters";
+            }
+            return null;
+        };
+    }
+
+    /**
+     * @param selection selection expression as described in the class documentation
+     * @return rule rejecting the records not matching the expression
+     * @throws IllegalArgumentException if the expression could not be parsed
+     */
+    public static Rule parseSelection(String selection) throws IllegalArgumentException {
+        final Matcher matcher = SELECTION.matcher(selection);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid selection '" + selection + "', expected e.g. '001b=870970'");
+        }
+        final String tag = matcher.group(1);
+        final Character code = matcher.group(2) != null ? matcher.group(2).charAt(0) : null;
+        final String operator = matcher.group(3);
+        final String value = matcher.group(4);
+        final Predicate<String> predicate;
+        if ("~".equals(operator)) {
+            try {
+                predicate = Pattern.compile(value).asMatchPredicate();
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid regular expression in selection '" + selection + "': " + e.getDescription());
+            }
+        } else {
+            predicate = value::equals;
+        }
+        final boolean negated = "!=".equals(operator);
+        final String reason = "Not selected by " + selection;
+        return marcRecord -> {
+            boolean found = false;
+            for (Field field : marcRecord.getFields()) {
+                if (tag.equals(field.getTag()) && matches(field, code, predicate)) {
+                    found = true;
+                    break;
+                }
+            }
+            return found != negated ? null : reason;
+        };
+    }
+
+    private static boolean matches(Field field, Character code, Predicate<String> predicate) {
+        if (code == null) {
+            return field instanceof ControlField && predicate.test(((ControlField) field).getData());
+        }
+        if (field instanceof DataField) {
+            for (SubField subField : ((DataField) field).getSubFields()) {
+                if (subField.getCode() == code && predicate.test(subField.getData())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Why a record is not sent
+     */
+    static class Rejection {
+        private final String reason;
+        private final boolean deselected;
+
+        Rejection(String reason, boolean deselected) {
+            this.reason = reason;
+            this.deselected = deselected;
+        }
+
+        String getReason() {
+            return reason;
+        }
+
+        /**
+         * @return true if the record is fine but not selected, false if it failed a check
+         */
+        boolean isDeselected() {
+            return deselected;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Groups records which depend on each other, so that they can be sent one at a time in input order.
+ * <p>
+ * The key of a record is the 001 *a of the head of its family. A record without 014 *a is its own
+ * head, so a record and its enrichments, which share 001 *a, get the same key. A record with
+ * 014 *a gets the key of the record it points to, which for a volume pointing to a section is the
+ * key of the head of the section. The key of a record with 014 *a is remembered for this, so
+ * a parent must come before its children in the input for the whole family to get the same key.
+ * <p>
+ * To keep the memory use bounded on large inputs, only the keys of the {@link #MAX_REMEMBERED}
+ * most recently seen records with 014 *a are remembered, about 20 MB. A volume whose section is
+ * further back in the input than that gets the 001 *a of the section as key, so it is still
+ * sent after its section, but no longer in turn with the head.
+ * Instances of this class are thread safe.
+ */
+public class RelatedRecords {
+    static final int MAX_REMEMBERED = 100_000;
+
+    // Access order, so that a section stays while its volumes keep coming
+    private final Map<String, String> keysOfChildren = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_REMEMBERED;
+                }
+            });
+
+    /**
+     * @param marcRecord record
+     * @return the key shared by the record and the records it depends on
+     */
+    public String keyOf(MarcRecord marcRecord) {
+        final String id = RecordId.of(marcRecord).getBibliographicRecordId();
+        final String parentId = getParentId(marcRecord);
+        if (parentId == null) {
+            return id;
+        }
+        final String key = keysOfChildren.getOrDefault(parentId, parentId);
+        keysOfChildren.put(id, key);
+        return key;
+    }
+
+    /**
+     * @param key key of a record
+     * @param lanes number of lanes
+     * @return the lane the records with the given key go through
+     */
+    public static int laneOf(String key, int lanes) {
+        final int hash = key.hashCode();
+        // Ids are mostly digits, so spread the high bits into the low ones
+        return Math.floorMod(hash ^ hash >>> 16, lanes);
+    }
+
+    private static String getParentId(MarcRecord marcRecord) {
+        final Optional<DataField> field014 = marcRecord.getField(DataField.class, MarcRecord.hasTag("014"));
+        if (field014.isPresent()) {
+            for (SubField subField : field014.get().getSubFields()) {
+                if (subField.getCode() == 'a' && subField.getData() != null && !subField.getData().isEmpty()) {
+                    return subField.getData();
+                }
+            }
+        }
+        return null;
+    }
+}
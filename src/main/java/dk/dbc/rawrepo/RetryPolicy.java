@@ -0,0 +1,184 @@
+package dk.dbc.rawrepo;
+
+import jakarta.xml.ws.WebServiceException;
+import jakarta.xml.ws.http.HTTPException;
+import jakarta.xml.ws.soap.SOAPFaultException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a failed call to updateservice should be tried again and how long to wait first.
+ * <p>
+ * updateRecord is not idempotent, so by default only failures which are known to have happened
+ * before updateservice got the record are retried: a connection which could not be made, and
+ * HTTP status 429 and 503, which are returned without processing the request. Failures after the
+ * record was sent, such as read timeouts, connection resets and 502, 504 and 408 from a proxy,
+ * may leave the record applied, and are only retried when explicitly allowed.
+ * SOAP faults and records rejected by updateservice are permanent.
+ * <p>
+ * The delay before attempt n+1 is drawn uniformly between zero and
+ * min(maxDelay, baseDelay * 2^(n-1)) ("full jitter"), so that workers which failed
+ * at the same moment do not all come back at the same moment.
+ * Instances of this class are immutable and thread safe.
+ */
+public class RetryPolicy {
+    private static final Pattern HTTP_STATUS = Pattern.compile("HTTP status code (\\d{3})");
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final boolean retryAfterSend;
+
+    /**
+     * @param maxRetries number of times a call is tried again after the first attempt, 0 disables retries
+     * @param baseDelayMillis upper bound on the delay before the first retry
+     * @param maxDelayMillis upper bound on the delay before any retry
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this(maxRetries, baseDelayMillis, maxDelayMillis, false);
+    }
+
+    /**
+     * @param maxRetries number of times a call is tried again after the first attempt, 0 disables retries
+     * @param baseDelayMillis upper bound on the delay before the first retry
+     * @param maxDelayMillis upper bound on the delay before any retry
+     * @param retryAfterSend true to also retry transient failures which may have happened after
+     *                       updateservice got the record, e.g. read timeouts
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, boolean retryAfterSend) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = Math.max(baseDelayMillis, maxDelayMillis);
+        this.retryAfterSend = retryAfterSend;
+    }
+
+    public static RetryPolicy none() {
+        return new RetryPolicy(0, 0, 0);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param attempt number of attempts made so far, starting at 1
+     * @param failure cause of the latest failure
+     * @return true if another attempt should be made
+     */
+    public boolean shouldRetry(int attempt, Throwable failure) {
+        return attempt <= maxRetries && canResend(failure);
+    }
+
+    /**
+     * @param failure cause of the latest failure
+     * @return true if the record may be sent again without risking that it is applied twice,
+     * or the failure is transient and that risk has been accepted
+     */
+    public boolean canResend(Throwable failure) {
+        return isBeforeSend(failure) || retryAfterSend && isRetryable(failure);
+    }
+
+    /**
+     * @param attempt number of attempts made so far, starting at 1
+     * @return milliseconds to wait before the next attempt
+     */
+    public long getDelayMillis(int attempt) {
+        final int shift = Math.min(attempt - 1, 30);
+        final long ceiling = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @param failure exception thrown by a call to updateservice
+     * @return true if the call failed before updateservice got the record, so that sending it again is safe
+     */
+    public static boolean isBeforeSend(Throwable failure) {
+        final Integer statusCode = getHttpStatus(failure);
+        if (statusCode != null) {
+            return statusCode == 429 || statusCode == 503;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException
+                    || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+            if (cause instanceof SocketTimeoutException && cause.getMessage() != null
+                    && cause.getMessage().toLowerCase(Locale.ROOT).contains("connect timed out")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param failure exception thrown by a call to updateservice
+     * @return true if the failure is transient, so that the same call may succeed later,
+     * whether or not updateservice got the record
+     */
+    public static boolean isRetryable(Throwable failure) {
+        if (failure instanceof SOAPFaultException) {
+            return false;
+        }
+        final Integer statusCode = getHttpStatus(failure);
+        if (statusCode != null) {
+            return isRetryableStatus(statusCode);
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param failure exception thrown by a call to updateservice
+     * @return true if the call was cancelled because it exceeded the connect or request timeout
+     */
+    public static boolean isTimeout(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Integer getHttpStatus(Throwable failure) {
+        if (failure instanceof HTTPException) {
+            return ((HTTPException) failure).getStatusCode();
+        }
+        if (failure instanceof WebServiceException && !(failure instanceof SOAPFaultException) && failure.getMessage() != null) {
+            // The JAX-WS runtime reports unexpected HTTP responses by status code in the message only
+            final Matcher matcher = HTTP_STATUS.matcher(failure.getMessage());
+            if (matcher.find()) {
+                return Integer.parseInt(matcher.group(1));
+            }
+        }
+        return null;
+    }
+
+    private static boolean isRetryableStatus(int statusCode) {
+        switch (statusCode) {
+            case 408:
+            case 429:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -6,22 +6,28 @@ import dk.dbc.marc.reader.Iso2709Reader;
 import dk.dbc.marc.reader.LineFormatReader;
 import dk.dbc.marc.reader.MarcReader;
 import dk.dbc.marc.reader.MarcReaderException;
-import dk.dbc.marc.reader.MarcXchangeV1Reader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PushbackInputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class UpdateApp {
     private static final Logger LOGGER = LoggerFactory.getLogger(UpdateApp.class);
 
     private static final int PUSHBACK_BUFFER_SIZE = 1000;
+    private static final int INPUT_BUFFER_SIZE = 1024 * 1024;
 
     public static void main(String[] args) {
         try {
@@ -45,45 +51,304 @@ public class UpdateApp {
         String trackingId = cli.args.getString("tracking_id");
         Integer priority = cli.args.getInt("priority");
         String provider = cli.args.getString("provider");
+        String routing = cli.args.getString("routing");
         int errorLimit = cli.args.getInt("error_limit");
-        String updateServiceUrl = cli.args.getString("url");
+        List<String> updateServiceUrls = parseUrls(cli.args.getString("url"));
         boolean validateOnly = cli.args.get("validate_only") != null ? cli.args.get("validate_only") : true;
+        int concurrency = cli.args.getInt("concurrency");
+        boolean adaptiveConcurrency = cli.args.getBoolean("adaptive_concurrency");
+        int maxConcurrency = cli.args.getInt("max_concurrency");
+        boolean virtualThreads = cli.args.getBoolean("virtual_threads");
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            throw new RuntimeException("--virtual-threads requires Java 21 or later, this is Java " +
+                    System.getProperty("java.specification.version"));
+        }
+        double maxRps = cli.args.getDouble("max_rps");
+        int maxInFlight = cli.args.getInt("max_in_flight");
+        String rateScheduleSpec = cli.args.getString("rate_schedule");
+        String checkpoint = cli.args.getString("checkpoint");
+        boolean resume = cli.args.getBoolean("resume");
+        String failedOut = cli.args.getString("failed_out");
+        List<String> selections = cli.args.getList("select");
+        String rejectedOut = cli.args.getString("rejected_out");
+        boolean dryRun = cli.args.getBoolean("dry_run");
+        int connectTimeout = cli.args.getInt("connect_timeout");
+        int requestTimeout = cli.args.getInt("request_timeout");
+        int deadline = cli.args.getInt("deadline");
+        int retries = cli.args.getInt("retries");
+        int retryDelay = cli.args.getInt("retry_delay");
+        int retryMaxDelay = cli.args.getInt("retry_max_delay");
+        boolean retryTimeouts = cli.args.getBoolean("retry_timeouts");
+        int circuitBreakerThreshold = cli.args.getInt("circuit_breaker_threshold");
+        int circuitBreakerProbeInterval = cli.args.getInt("circuit_breaker_probe_interval");
+        int circuitBreakerMaxOpen = cli.args.getInt("circuit_breaker_max_open");
+        int ejectionThreshold = cli.args.getInt("ejection_threshold");
+        int ejectionTime = cli.args.getInt("ejection_time");
+        int metricsInterval = cli.args.getInt("metrics_interval");
+        String metricsFile = cli.args.getString("metrics_file");
+        Integer metricsPort = cli.args.getInt("metrics_port");
+        int readThreads = cli.args.getInt("read_threads");
+        boolean unordered = cli.args.getBoolean("unordered");
+        int fileReaders = cli.args.getInt("file_readers");
+        boolean keepRelatedOrder = cli.args.getBoolean("keep_related_order");
+        String dedupe = cli.args.getString("dedupe");
+        if (resume && checkpoint == null) {
+            throw new RuntimeException("--resume requires --checkpoint");
+        }
+        if (unordered && checkpoint != null) {
+            // The journal identifies records by their position in the input
+            throw new RuntimeException("--unordered can't be combined with --checkpoint");
+        }
+        if (fileReaders > 1 && checkpoint != null) {
+            throw new RuntimeException("--file-readers can't be combined with --checkpoint");
+        }
+        if (dedupe != null && (unordered || fileReaders > 1)) {
+            // Both reads of the input must see the records in the same order
+            throw new RuntimeException("--dedupe can't be combined with --unordered or --file-readers");
+        }
+        if (keepRelatedOrder && (unordered || fileReaders > 1)) {
+            // Records are put in their lanes in the order they are dispatched
+            throw new RuntimeException("--keep-related-order can't be combined with --unordered or --file-readers");
+        }
+
+        if (dryRun && checkpoint != null && !resume) {
+            // A dry run must not leave a new journal behind
+            throw new RuntimeException("--dry-run can only be combined with --checkpoint when resuming");
+        }
+        final RecordValidator recordValidator = createRecordValidator(selections, rejectedOut != null || dryRun);
 
-        final File in = cli.args.get("IN");
-        final int pushbackBufferSize = (int) Math.min(in.length(), PUSHBACK_BUFFER_SIZE);
+        final RateSchedule rateSchedule = parseRateSchedule(rateScheduleSpec, maxRps, maxInFlight);
+        final RecordRouter recordRouter = loadRecordRouter(routing, new RecordRouter.Route("default", template, provider, priority));
+        for (RecordRouter.Route route : recordRouter.getRoutes()) {
+            if (route.getPriority() != null && route.getPriority() <= 500 && rateSchedule.isUnlimited()) {
+                LOGGER.warn("Priority {} competes with DBCkat/Cicero, consider limiting the load with --max-rps or --max-in-flight",
+                        route.getPriority());
+                break;
+            }
+        }
+
+        final List<File> inputFiles = expandInputFiles(cli.args.getList("IN"));
+        if (dedupe != null && InputFiles.STDIN.equals(inputFiles.get(0).getName())) {
+            throw new RuntimeException("--dedupe can't read standard input, since the input is read twice");
+        }
 
         LOGGER.debug("***************************");
-        LOGGER.debug("* Update Service URL: {}", updateServiceUrl);
+        LOGGER.debug("* Update Service URL: {}", String.join(", ", updateServiceUrls));
         LOGGER.debug("*           Username: {}", username);
         LOGGER.debug("*              Group: {}", groupId);
         LOGGER.debug("*           Password: {}", "********");
         LOGGER.debug("*           Template: {}", template);
         LOGGER.debug("*        Tracking Id: {}", trackingId);
         LOGGER.debug("*           Priority: {}", priority);
+        LOGGER.debug("*            Routing: {}", routing);
         LOGGER.debug("*           Provider: {}", provider);
         LOGGER.debug("*      Validate Only: {}", validateOnly);
         LOGGER.debug("*        Error Limit: {}", errorLimit);
+        LOGGER.debug("*        Concurrency: {}{}", concurrency,
+                (adaptiveConcurrency ? " (adaptive, max " + maxConcurrency + ")" : "") +
+                        (virtualThreads ? " on virtual threads" : ""));
+        LOGGER.debug("*         Rate Limit: {}", rateSchedule);
+        LOGGER.debug("*              Input: {} file(s), {} read concurrently", inputFiles.size(), fileReaders);
+        LOGGER.debug("*       Read Threads: {}{}", readThreads, unordered ? " (unordered)" : "");
+        LOGGER.debug("*      Related Order: {}", keepRelatedOrder);
+        LOGGER.debug("*             Dedupe: {}", dedupe);
+        LOGGER.debug("*         Checkpoint: {}{}", checkpoint, resume ? " (resume)" : "");
+        LOGGER.debug("*         Failed Out: {}", failedOut);
+        LOGGER.debug("*             Select: {}", selections);
+        LOGGER.debug("*       Rejected Out: {}", rejectedOut);
+        LOGGER.debug("*            Dry Run: {}", dryRun);
+        LOGGER.debug("*           Timeouts: connect {} ms, request {} ms, deadline {} ms", connectTimeout, requestTimeout, deadline);
+        LOGGER.debug("*            Retries: {} (delay {} ms, max {} ms){}", retries, retryDelay, retryMaxDelay,
+                retryTimeouts ? " including timeouts" : "");
+        LOGGER.debug("*    Circuit Breaker: {} failures (probe every {} ms, hold at most {} ms)",
+                circuitBreakerThreshold, circuitBreakerProbeInterval, circuitBreakerMaxOpen);
+        LOGGER.debug("*  Endpoint Ejection: {} failures ({} ms)", ejectionThreshold, ejectionTime);
+        LOGGER.debug("*            Metrics: every {} s, file {}, port {}", metricsInterval, metricsFile, metricsPort);
         LOGGER.debug("***************************");
 
-        try (PushbackInputStream is = "-".equals(in.getName())
-                ? new PushbackInputStream(System.in, pushbackBufferSize)
-                : new PushbackInputStream(new FileInputStream((File) cli.args.get("IN")), pushbackBufferSize)) {
-            final Charset inputEncoding = StandardCharsets.UTF_8;
-            final MarcReader marcRecordReader = getMarcReader(cli, is, inputEncoding, pushbackBufferSize);
+        final Charset inputEncoding = StandardCharsets.UTF_8;
+        final List<JobInput> inputs = new ArrayList<>();
+        for (File inputFile : inputFiles) {
+            inputs.add(getJobInput(cli, inputFile, inputEncoding, readThreads, !unordered));
+        }
+        final MarcFormatDeducer.FORMAT format = inputs.get(0).getFormat();
+        if (failedOut != null || rejectedOut != null) {
+            for (JobInput input : inputs) {
+                if (input.getFormat() != format) {
+                    throw new RuntimeException((failedOut != null ? "--failed-out" : "--rejected-out") +
+                            " requires all input files to have the same format, " +
+                            inputs.get(0).getName() + " is " + format + " but " + input.getName() + " is " + input.getFormat());
+                }
+            }
+        }
+
+        try (CheckpointJournal checkpointJournal = openCheckpointJournal(checkpoint, resume)) {
+            final ConcurrencyLimiter concurrencyLimiter = adaptiveConcurrency
+                    ? ConcurrencyLimiter.adaptive(Math.min(concurrency, maxConcurrency), maxConcurrency)
+                    : ConcurrencyLimiter.fixed(concurrency);
             final UpdateServiceHandler updateServiceHandler = new UpdateServiceHandler(username, groupId, password,
-                    template, trackingId, priority, provider, validateOnly, errorLimit, updateServiceUrl);
+                    template, trackingId, priority, provider, validateOnly, errorLimit, updateServiceUrls, concurrencyLimiter)
+                    .withCheckpointJournal(checkpointJournal)
+                    .withRecordRouter(recordRouter)
+                    .withRateLimiter(rateSchedule.isUnlimited() ? null : new RateLimiter(rateSchedule))
+                    .withVirtualThreads(virtualThreads)
+                    .withRelatedRecordsInOrder(keepRelatedOrder)
+                    .withDedupe(dedupe != null ? Deduplicator.Mode.valueOf(dedupe.toUpperCase()) : null)
+                    .withTimeouts(connectTimeout, requestTimeout, deadline)
+                    .withRetryPolicy(new RetryPolicy(retries, retryDelay, retryMaxDelay, retryTimeouts))
+                    .withCircuitBreaker(circuitBreakerThreshold, circuitBreakerProbeInterval, circuitBreakerMaxOpen)
+                    .withEndpointEjection(ejectionThreshold, ejectionTime)
+                    .withMetrics(metricsInterval, metricsFile != null ? Paths.get(metricsFile) : null, metricsPort)
+                    .withDryRun(dryRun);
 
-            updateServiceHandler.run(marcRecordReader);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("Could not read file");
+            try (FailedRecordWriter failedRecordWriter = openFailedRecordWriter(failedOut, format, inputEncoding);
+                 FailedRecordWriter rejectedRecordWriter = openFailedRecordWriter(rejectedOut, format, inputEncoding)) {
+                updateServiceHandler.withFailedRecordWriter(failedRecordWriter)
+                        .withRecordValidator(recordValidator, rejectedRecordWriter)
+                        .run(inputs, fileReaders);
+            }
         } catch (IOException e) {
             throw new RuntimeException("Could not open stream");
-        } catch (MarcReaderException e) {
-            throw new RuntimeException("Could not create MarcReader");
         }
     }
 
-    private static MarcReader getMarcReader(Cli cli, PushbackInputStream is, Charset encoding, int pushbackBufferSize) throws MarcReaderException {
+    private static List<String> parseUrls(String urls) {
+        final List<String> result = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                result.add(url.trim());
+            }
+        }
+        if (result.isEmpty()) {
+            throw new RuntimeException("--url requires at least one url");
+        }
+        return result;
+    }
+
+    private static RateSchedule parseRateSchedule(String rateSchedule, double maxRps, int maxInFlight) {
+        try {
+            return RateSchedule.parse(rateSchedule, new RateSchedule.Limits(maxRps, maxInFlight));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    private static List<File> expandInputFiles(List<String> arguments) {
+        try {
+            return InputFiles.expand(arguments);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(e.getMessage());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not list input files: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deduces the format of the input right away, so that a job is not started with unreadable input files,
+     * but only opens the input for reading when the job gets to it
+     */
+    private static JobInput getJobInput(Cli cli, File in, Charset encoding, int readThreads, boolean ordered) {
+        try {
+            if (InputFiles.STDIN.equals(in.getName())) {
+                // Standard input can only be read once
+                final PushbackInputStream is = new PushbackInputStream(openInput(in, true), PUSHBACK_BUFFER_SIZE);
+                final MarcFormatDeducer.FORMAT format = deduceFormat(is, encoding, PUSHBACK_BUFFER_SIZE);
+                return new JobInput(InputFiles.STDIN, format,
+                        () -> getRecordSource(cli, is, format, encoding, readThreads, ordered).closing(is));
+            }
+            final MarcFormatDeducer.FORMAT format;
+            // Only the start of the file is read here, so it is not worth decompressing ahead
+            try (PushbackInputStream is = new PushbackInputStream(openInput(in, false), PUSHBACK_BUFFER_SIZE)) {
+                format = deduceFormat(is, encoding, PUSHBACK_BUFFER_SIZE);
+            }
+            return new JobInput(in.getPath(), format, () -> {
+                final InputStream is = openInput(in, true);
+                try {
+                    return getRecordSource(cli, is, format, encoding, readThreads, ordered).closing(is);
+                } catch (MarcReaderException | RuntimeException e) {
+                    is.close();
+                    throw e;
+                }
+            });
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException("Could not read file " + in);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open stream " + in + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the input, decompressing it if it is compressed
+     * @param readAhead if true, compressed input is decompressed ahead on a separate thread
+     */
+    private static InputStream openInput(File in, boolean readAhead) throws IOException {
+        final InputStream is;
+        if ("-".equals(in.getName())) {
+            is = new BufferedInputStream(System.in, INPUT_BUFFER_SIZE);
+        } else if (in.isFile()) {
+            is = new MappedFileInputStream(in.toPath());
+        } else {
+            // Named pipes and other special files can't be mapped
+            is = new BufferedInputStream(new FileInputStream(in), INPUT_BUFFER_SIZE);
+        }
+        try {
+            return CompressedInput.decompress(is, readAhead);
+        } catch (IOException | RuntimeException e) {
+            is.close();
+            throw e;
+        }
+    }
+
+    private static CheckpointJournal openCheckpointJournal(String checkpoint, boolean resume) {
+        if (checkpoint == null) {
+            return null;
+        }
+        try {
+            return CheckpointJournal.open(Paths.get(checkpoint), resume);
+        } catch (FileAlreadyExistsException e) {
+            throw new RuntimeException("Checkpoint journal " + checkpoint + " already exists, use --resume to continue from it");
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open checkpoint journal " + checkpoint);
+        }
+    }
+
+    private static FailedRecordWriter openFailedRecordWriter(String path, MarcFormatDeducer.FORMAT format, Charset encoding) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            return FailedRecordWriter.open(Paths.get(path), format, encoding);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open records file " + path);
+        }
+    }
+
+    private static RecordRouter loadRecordRouter(String routing, RecordRouter.Route defaultRoute) {
+        if (routing == null) {
+            return new RecordRouter(defaultRoute);
+        }
+        try {
+            return RecordRouter.load(Paths.get(routing), defaultRoute);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(routing + ": " + e.getMessage());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read routing rules " + routing);
+        }
+    }
+
+    private static RecordValidator createRecordValidator(List<String> selections, boolean checked) {
+        if ((selections == null || selections.isEmpty()) && !checked) {
+            // The checks need the record parsed on the reading side, which is otherwise done by the workers
+            return null;
+        }
+        try {
+            return RecordValidator.withDefaultChecks().withSelections(selections);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    private static MarcFormatDeducer.FORMAT deduceFormat(PushbackInputStream is, Charset encoding, int pushbackBufferSize) {
         final MarcFormatDeducer marcFormatDeducer = new MarcFormatDeducer(pushbackBufferSize);
 
         Charset sampleEncoding = encoding;
@@ -93,8 +358,23 @@ public class UpdateApp {
             // into the mix.
             sampleEncoding = Charset.forName("LATIN1");
         }
-        final MarcFormatDeducer.FORMAT format =
-                marcFormatDeducer.deduce(is, sampleEncoding);
+        return marcFormatDeducer.deduce(is, sampleEncoding);
+    }
+
+    private static UpdateServiceHandler.RecordSource getRecordSource(Cli cli, InputStream is, MarcFormatDeducer.FORMAT format,
+                                                                     Charset encoding, int readThreads, boolean ordered) throws MarcReaderException {
+        if (readThreads > 1 && format != MarcFormatDeducer.FORMAT.ISO2709) {
+            LOGGER.warn("--read-threads only applies to ISO2709 input, reading {} input on a single thread", format);
+        }
+        if (format == MarcFormatDeducer.FORMAT.MARCXCHANGE) {
+            // The workers parse the records straight into DOM, so no MarcRecord is built
+            return new MarcXchangeSplitter(is, encoding);
+        }
+        return UpdateServiceHandler.RecordSource.of(getMarcReader(cli, is, format, encoding, readThreads, ordered));
+    }
+
+    private static MarcReader getMarcReader(Cli cli, InputStream is, MarcFormatDeducer.FORMAT format, Charset encoding,
+                                            int readThreads, boolean ordered) throws MarcReaderException {
 
         if (format == MarcFormatDeducer.FORMAT.LINE
                 && encoding instanceof DanMarc2Charset) {
@@ -110,9 +390,10 @@ public class UpdateApp {
                                 cli.args.getBoolean("include_whitespace_padding"));
             case DANMARC2_LINE:
                 return new DanMarc2LineFormatReader(is, encoding);
-            case MARCXCHANGE:
-                return new MarcXchangeV1Reader(is, encoding);
             default:
+                if (readThreads > 1) {
+                    return new ParallelIso2709Reader(is, encoding, readThreads, ordered);
+                }
                 return new Iso2709Reader(is, encoding);
         }
     }
@@ -4,6 +4,8 @@ import dk.dbc.invariant.InvariantUtil;
 import dk.dbc.oss.ns.catalogingupdate.Authentication;
 import dk.dbc.oss.ns.catalogingupdate.BibliographicRecord;
 import dk.dbc.oss.ns.catalogingupdate.CatalogingUpdatePortType;
+import dk.dbc.oss.ns.catalogingupdate.GetSchemasRequest;
+import dk.dbc.oss.ns.catalogingupdate.GetSchemasResult;
 import dk.dbc.oss.ns.catalogingupdate.Options;
 import dk.dbc.oss.ns.catalogingupdate.UpdateOptionEnum;
 import dk.dbc.oss.ns.catalogingupdate.UpdateRecordRequest;
@@ -23,8 +25,8 @@ public class UpdateServiceConnector {
 
     private static final String CONNECT_TIMEOUT_PROPERTY = "com.sun.xml.ws.connect.timeout";
     private static final String REQUEST_TIMEOUT_PROPERTY = "com.sun.xml.ws.request.timeout";
-    private static final int CONNECT_TIMEOUT_DEFAULT_IN_MS = 60 * 1000;       // 1 minute
-    private static final int REQUEST_TIMEOUT_DEFAULT_IN_MS = 60 * 60 * 1000;  // 60 minutes -- we wait and wait on open update.
+    public static final int CONNECT_TIMEOUT_DEFAULT_IN_MS = 60 * 1000;       // 1 minute
+    public static final int REQUEST_TIMEOUT_DEFAULT_IN_MS = 60 * 60 * 1000;  // 60 minutes -- we wait and wait on open update.
 
     private final String endpoint;
     private final String userName;
@@ -34,6 +36,7 @@ public class UpdateServiceConnector {
     private final CatalogingUpdatePortType proxy;
 
     private final boolean validateOnly;
+    private final int requestTimeoutInMs;
 
     /**
      * Class constructor
@@ -61,12 +64,31 @@ public class UpdateServiceConnector {
      */
     UpdateServiceConnector(UpdateService service, String endpoint, String userName, String password, boolean validateOnly)
             throws NullPointerException, IllegalArgumentException {
+        this(service, endpoint, userName, password, validateOnly, CONNECT_TIMEOUT_DEFAULT_IN_MS, REQUEST_TIMEOUT_DEFAULT_IN_MS);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param service            web service client view of the CatalogingUpdate Web service
+     * @param endpoint           web service endpoint base URL on the form "http(s)://host:port/path"
+     * @param userName           for authenticating any user requiring access to the webservice
+     * @param password           for authenticating any user requiring access to the webservice
+     * @param connectTimeoutInMs max time to wait for a connection to the webservice
+     * @param requestTimeoutInMs max time to wait for the response to a request
+     * @throws NullPointerException     if passed any null valued argument
+     * @throws IllegalArgumentException if passed empty valued {@code endpoint}, {@code userName}, {@code password}
+     */
+    UpdateServiceConnector(UpdateService service, String endpoint, String userName, String password, boolean validateOnly,
+                           int connectTimeoutInMs, int requestTimeoutInMs)
+            throws NullPointerException, IllegalArgumentException {
         InvariantUtil.checkNotNullOrThrow(service, "service");
         this.endpoint = InvariantUtil.checkNotNullNotEmptyOrThrow(endpoint, "endpoint");
         this.userName = InvariantUtil.checkNotNullOrThrow(userName, "userName");
         this.password = InvariantUtil.checkNotNullOrThrow(password, "password");
         this.validateOnly = validateOnly;
-        proxy = this.getProxy(service);
+        this.requestTimeoutInMs = requestTimeoutInMs;
+        proxy = this.getProxy(service, connectTimeoutInMs);
     }
 
     /**
@@ -90,6 +112,40 @@ public class UpdateServiceConnector {
         return proxy.updateRecord(updateRecordRequest);
     }
 
+    /**
+     * Lowers the request timeout of the following calls, e.g. to respect a deadline.
+     * The timeout never exceeds the one given when the connector was created.
+     *
+     * @param timeoutInMs max time to wait for the response to a request
+     */
+    public void limitRequestTimeout(int timeoutInMs) {
+        ((BindingProvider) proxy).getRequestContext().put(REQUEST_TIMEOUT_PROPERTY,
+                Math.max(1, Math.min(timeoutInMs, requestTimeoutInMs)));
+    }
+
+    /**
+     * Calls getSchemas operation of the Open Update Web service
+     *
+     * @param groupId    group id used for authorization
+     * @param trackingId unique ID for each OpenUpdate request
+     * @return GetSchemasResult instance
+     * @throws NullPointerException     if passed any null valued {@code groupId} argument
+     * @throws IllegalArgumentException if passed empty valued {@code groupId}
+     */
+    public GetSchemasResult getSchemas(String groupId, String trackingId)
+            throws NullPointerException, IllegalArgumentException {
+        InvariantUtil.checkNotNullNotEmptyOrThrow(groupId, "groupId");
+        LOGGER.trace("Using endpoint: {}", endpoint);
+        final GetSchemasRequest getSchemasRequest = new GetSchemasRequest();
+        final Authentication authentication = new Authentication();
+        authentication.setGroupIdAut(groupId);
+        authentication.setUserIdAut(userName);
+        authentication.setPasswordAut(password);
+        getSchemasRequest.setAuthentication(authentication);
+        getSchemasRequest.setTrackingId(trackingId);
+        return proxy.getSchemas(getSchemasRequest);
+    }
+
     /**
      * Builds an UpdateRecordRequest
      *
@@ -122,15 +178,14 @@ public class UpdateServiceConnector {
         return updateRecordRequest;
     }
 
-    private CatalogingUpdatePortType getProxy(UpdateService service) {
+    private CatalogingUpdatePortType getProxy(UpdateService service, int connectTimeoutInMs) {
         final CatalogingUpdatePortType proxy = service.getCatalogingUpdatePort();
 
         // We don't want to rely on the endpoint from the WSDL
         BindingProvider bindingProvider = (BindingProvider) proxy;
         bindingProvider.getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, endpoint);
-        // FixMe: timeouts should be made configurable
-        bindingProvider.getRequestContext().put(CONNECT_TIMEOUT_PROPERTY, CONNECT_TIMEOUT_DEFAULT_IN_MS);
-        bindingProvider.getRequestContext().put(REQUEST_TIMEOUT_PROPERTY, REQUEST_TIMEOUT_DEFAULT_IN_MS);
+        bindingProvider.getRequestContext().put(CONNECT_TIMEOUT_PROPERTY, connectTimeoutInMs);
+        bindingProvider.getRequestContext().put(REQUEST_TIMEOUT_PROPERTY, requestTimeoutInMs);
 
         return proxy;
     }
@@ -0,0 +1,159 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.invariant.InvariantUtil;
+import dk.dbc.oss.ns.catalogingupdate.UpdateService;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed size pool of update web service connectors.
+ * <p>
+ * {@link UpdateServiceConnector} instances are not thread safe, so each connector
+ * in the pool has its own web-service proxy, and a connector is only ever used by
+ * the caller which has checked it out. All connectors are created from a
+ * single {@link UpdateService} so that the WSDL is only processed once.
+ * <p>
+ * Bootstrapping the JAX-WS runtime, which happens when the service and the first proxy are
+ * created, takes the better part of a second. It is started on a background thread as soon
+ * as the pool is created, so it overlaps with reading and converting the first records.
+ * The remaining connectors are only created when the calls in flight need them, so a large
+ * maximum concurrency costs nothing at startup.
+ * Instances of this class are thread safe.
+ */
+public class UpdateServiceConnectorPool {
+    private final BlockingQueue<UpdateServiceConnector> connectors = new LinkedBlockingQueue<>();
+    private final AtomicInteger createdCount = new AtomicInteger(1);
+    private final CompletableFuture<UpdateService> service;
+    private final int size;
+    private final String endpoint;
+    private final String userName;
+    private final String password;
+    private final boolean validateOnly;
+    private final int connectTimeoutInMs;
+    private final int requestTimeoutInMs;
+
+    /**
+     * @param size     number of connectors in the pool, which should match the number of concurrent callers
+     * @param endpoint web service endpoint base URL on the form "http(s)://host:port/path"
+     * @param userName for authenticating any user requiring access to the webservice
+     * @param password for authenticating any user requiring access to the webservice
+     * @throws NullPointerException     if passed any null valued argument
+     * @throws IllegalArgumentException if passed empty valued {@code endpoint} or a size less than 1
+     */
+    public UpdateServiceConnectorPool(int size, String endpoint, String userName, String password, boolean validateOnly)
+            throws NullPointerException, IllegalArgumentException {
+        this(size, endpoint, userName, password, validateOnly,
+                UpdateServiceConnector.CONNECT_TIMEOUT_DEFAULT_IN_MS, UpdateServiceConnector.REQUEST_TIMEOUT_DEFAULT_IN_MS);
+    }
+
+    /**
+     * @param size               number of connectors in the pool, which should match the number of concurrent callers
+     * @param endpoint           web service endpoint base URL on the form "http(s)://host:port/path"
+     * @param userName           for authenticating any user requiring access to the webservice
+     * @param password           for authenticating any user requiring access to the webservice
+     * @param connectTimeoutInMs max time to wait for a connection to the webservice
+     * @param requestTimeoutInMs max time to wait for the response to a request
+     * @throws NullPointerException     if passed any null valued argument
+     * @throws IllegalArgumentException if passed empty valued {@code endpoint} or a size less than 1
+     */
+    public UpdateServiceConnectorPool(int size, String endpoint, String userName, String password, boolean validateOnly,
+                                      int connectTimeoutInMs, int requestTimeoutInMs)
+            throws NullPointerException, IllegalArgumentException {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be at least 1, was " + size);
+        }
+        this.size = size;
+        this.endpoint = InvariantUtil.checkNotNullNotEmptyOrThrow(endpoint, "endpoint");
+        this.userName = InvariantUtil.checkNotNullOrThrow(userName, "userName");
+        this.password = InvariantUtil.checkNotNullOrThrow(password, "password");
+        this.validateOnly = validateOnly;
+        this.connectTimeoutInMs = connectTimeoutInMs;
+        this.requestTimeoutInMs = requestTimeoutInMs;
+        this.service = CompletableFuture.supplyAsync(this::bootstrap, runnable -> {
+            final Thread thread = new Thread(runnable, "updateservice-bootstrap");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Checks out a connector, waiting if all connectors are in use.
+     * The connector must be given back using {@link #release(UpdateServiceConnector)}.
+     * @return connector for exclusive use by the caller
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public UpdateServiceConnector take() throws InterruptedException {
+        final UpdateService updateService = getService();
+        final UpdateServiceConnector idle = connectors.poll();
+        if (idle != null) {
+            return idle;
+        }
+        int created = createdCount.get();
+        while (created < size) {
+            if (createdCount.compareAndSet(created, created + 1)) {
+                try {
+                    return createConnector(updateService);
+                } catch (RuntimeException e) {
+                    createdCount.decrementAndGet();
+                    throw e;
+                }
+            }
+            created = createdCount.get();
+        }
+        return connectors.take();
+    }
+
+    /**
+     * Returns a connector to the pool
+     * @param connector connector previously checked out using {@link #take()}
+     */
+    public void release(UpdateServiceConnector connector) {
+        connectors.add(connector);
+    }
+
+    /**
+     * Creates a connector which is not part of the pool, e.g. for health checks which must not
+     * wait for the pooled connectors held by slow calls
+     * @param timeoutInMs max time to wait for a connection and for the response to a request
+     * @return connector for exclusive use by the caller
+     * @throws InterruptedException if interrupted while waiting for the service to be bootstrapped
+     */
+    public UpdateServiceConnector createUnpooled(int timeoutInMs) throws InterruptedException {
+        return new UpdateServiceConnector(getService(), endpoint, userName, password, validateOnly,
+                Math.min(timeoutInMs, connectTimeoutInMs), Math.min(timeoutInMs, requestTimeoutInMs));
+    }
+
+    private UpdateService bootstrap() {
+        final UpdateService updateService = new UpdateService();
+        connectors.add(createConnector(updateService));
+        return updateService;
+    }
+
+    private UpdateService getService() throws InterruptedException {
+        try {
+            return service.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private UpdateServiceConnector createConnector(UpdateService updateService) {
+        return new UpdateServiceConnector(updateService, endpoint, userName, password, validateOnly,
+                connectTimeoutInMs, requestTimeoutInMs);
+    }
+}
@@ -1,11 +1,8 @@
 package dk.dbc.rawrepo;
 
-import dk.dbc.marc.binding.DataField;
 import dk.dbc.marc.binding.MarcRecord;
-import dk.dbc.marc.binding.SubField;
 import dk.dbc.marc.reader.MarcReader;
 import dk.dbc.marc.reader.MarcReaderException;
-import dk.dbc.marc.writer.MarcXchangeV1Writer;
 import dk.dbc.oss.ns.catalogingupdate.BibliographicRecord;
 import dk.dbc.oss.ns.catalogingupdate.DoubleRecordEntries;
 import dk.dbc.oss.ns.catalogingupdate.DoubleRecordEntry;
@@ -15,28 +12,35 @@ import dk.dbc.oss.ns.catalogingupdate.Messages;
 import dk.dbc.oss.ns.catalogingupdate.RecordData;
 import dk.dbc.oss.ns.catalogingupdate.UpdateRecordResult;
 import dk.dbc.oss.ns.catalogingupdate.UpdateStatusEnum;
-import dk.dbc.rawrepo.bindings.BibliographicRecordExtraData;
-import dk.dbc.rawrepo.bindings.BibliographicRecordExtraDataMarshaller;
+import dk.dbc.rawrepo.bindings.BibliographicRecordExtraDataCache;
+import dk.dbc.rawrepo.metrics.MetricsReporter;
+import dk.dbc.rawrepo.metrics.UpdateMetrics;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.ws.WebServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
+import org.w3c.dom.Element;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
 class UpdateServiceHandler {
 
@@ -45,22 +49,69 @@ class UpdateServiceHandler {
     private static final String RECORD_SCHEMA = "info:lc/xmlns/marcxchange-v1";
     private static final String RECORD_PACKAGING = "xml";
 
-    private final BibliographicRecordExtraDataMarshaller bibliographicRecordExtraDataMarshaller =
-            new BibliographicRecordExtraDataMarshaller();
+    private static final int QUEUE_CAPACITY_PER_THREAD = 4;
+    // How long a due retry waits before trying again when the queue is full
+    private static final long REQUEUE_INTERVAL_MILLIS = 10;
+    // How often the metrics file is updated when no log interval is given
+    private static final int METRICS_FILE_INTERVAL_SECONDS = 10;
+    // Marks the end of input for a worker
+    private static final InputRecord END_OF_INPUT = new InputRecord(0, null);
+
+    private enum Outcome {
+        UPDATED,
+        FAILED,
+        // Handed to the retry scheduler, which puts it back on the queue later,
+        // or to be tried again right away by a worker with a lane of its own
+        RETRYING
+    }
+
+    private final BibliographicRecordExtraDataCache bibliographicRecordExtraDataCache =
+            new BibliographicRecordExtraDataCache();
 
     private final AtomicInteger errorCount = new AtomicInteger(0);
     private final AtomicInteger successCount = new AtomicInteger(0);
+    private final AtomicInteger processedCount = new AtomicInteger(0);
+    private final AtomicInteger retryCount = new AtomicInteger(0);
+    private final AtomicInteger deadlineExceededCount = new AtomicInteger(0);
+    private final AtomicInteger deselectedCount = new AtomicInteger(0);
+    private final UpdateMetrics metrics = new UpdateMetrics();
+    // Records handed to the workers which have not yet reached a final outcome
+    private final AtomicInteger outstandingCount = new AtomicInteger(0);
 
     private final String username;
     private final String groupId;
     private final String password;
-    private final String template;
     private final String trackingId;
-    private final Integer priority;
-    private final String provider;
     private final boolean validateOnly;
     private final int errorLimit;
-    private final String updateServiceUrl;
+    private final List<String> updateServiceUrls;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private RateLimiter rateLimiter;
+    private CheckpointJournal checkpointJournal;
+    private FailedRecordWriter failedRecordWriter;
+    private RecordRouter recordRouter;
+    private RelatedRecords relatedRecords;
+    private RecordValidator recordValidator;
+    private FailedRecordWriter rejectedRecordWriter;
+    private boolean dryRun = false;
+    private RetryPolicy retryPolicy = RetryPolicy.none();
+    private int circuitBreakerThreshold = 0;
+    private long circuitBreakerProbeIntervalMillis;
+    private long circuitBreakerMaxOpenMillis;
+    private CircuitBreaker circuitBreaker;
+    private int ejectionThreshold = 0;
+    private long ejectionMillis;
+    private EndpointBalancer endpointBalancer;
+    private long sendNanos;
+    private int metricsIntervalSeconds = 0;
+    private Path metricsFile;
+    private Integer metricsPort;
+    private int connectTimeoutMillis = UpdateServiceConnector.CONNECT_TIMEOUT_DEFAULT_IN_MS;
+    private int requestTimeoutMillis = UpdateServiceConnector.REQUEST_TIMEOUT_DEFAULT_IN_MS;
+    private long deadlineMillis = 0;
+    private boolean virtualThreads = false;
+    private Deduplicator.Mode dedupeMode;
+    private BitSet duplicates;
 
     UpdateServiceHandler(String username,
                          String groupId,
@@ -71,88 +122,685 @@ class UpdateServiceHandler {
                          String provider,
                          boolean validateOnly,
                          int errorLimit,
-                         String updateServiceUrl) {
+                         List<String> updateServiceUrls,
+                         ConcurrencyLimiter concurrencyLimiter) {
         this.username = username;
         this.groupId = groupId;
         this.password = password;
-        this.template = template;
         this.trackingId = trackingId;
-        this.priority = priority;
-        this.provider = provider;
+        this.recordRouter = new RecordRouter(new RecordRouter.Route("default", template, provider, priority));
         this.validateOnly = validateOnly;
         this.errorLimit = errorLimit;
-        this.updateServiceUrl = updateServiceUrl;
+        this.updateServiceUrls = updateServiceUrls;
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
-    void run(MarcReader marcReader) {
-        UpdateServiceConnector updateServiceConnector = new UpdateServiceConnector(updateServiceUrl, username, password, validateOnly);
+    /**
+     * Journals the outcome of every record and skips records
+     * already journaled as successful by a previous run
+     * @param checkpointJournal journal to use
+     * @return this handler
+     */
+    UpdateServiceHandler withCheckpointJournal(CheckpointJournal checkpointJournal) {
+        this.checkpointJournal = checkpointJournal;
+        return this;
+    }
 
-        try {
-            final DocumentBuilder dBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    /**
+     * Sends only one record of each record id, finding the duplicates by reading all inputs
+     * once before sending. The inputs must be readable more than once, and records must be
+     * read in the same order every time.
+     * @param dedupeMode which of the records with the same id to send, null to send all records
+     * @return this handler
+     */
+    UpdateServiceHandler withDedupe(Deduplicator.Mode dedupeMode) {
+        this.dedupeMode = dedupeMode;
+        return this;
+    }
+
+    /**
+     * Writes every record which could not be updated to the given writer
+     * @param failedRecordWriter writer to use
+     * @return this handler
+     */
+    UpdateServiceHandler withFailedRecordWriter(FailedRecordWriter failedRecordWriter) {
+        this.failedRecordWriter = failedRecordWriter;
+        return this;
+    }
+
+    /**
+     * Chooses the template, provider and priority of each record from its content
+     * @param recordRouter router to use, its default route replaces the template, provider and priority
+     *                     given to the constructor
+     * @return this handler
+     */
+    UpdateServiceHandler withRecordRouter(RecordRouter recordRouter) {
+        this.recordRouter = recordRouter;
+        return this;
+    }
+
+    /**
+     * Sends records depending on each other, like a volume and its head or a record and its enrichments,
+     * one at a time in input order. Every worker gets a lane of its own, and all records with the same
+     * {@link RelatedRecords} key go through the same lane, so unrelated records are still sent in parallel.
+     * Records are read on a single thread, so that they are dispatched in input order.
+     * @param relatedInOrder true to keep the order of related records
+     * @return this handler
+     */
+    UpdateServiceHandler withRelatedRecordsInOrder(boolean relatedInOrder) {
+        this.relatedRecords = relatedInOrder ? new RelatedRecords() : null;
+        return this;
+    }
+
+    /**
+     * Checks every record before it is handed to the workers. Records which don't pass
+     * are never sent, and don't count towards the error limit.
+     * @param recordValidator validator to use, null to send all records
+     * @param rejectedRecordWriter writer to write the records which don't pass to, may be null
+     * @return this handler
+     */
+    UpdateServiceHandler withRecordValidator(RecordValidator recordValidator, FailedRecordWriter rejectedRecordWriter) {
+        this.recordValidator = recordValidator;
+        this.rejectedRecordWriter = rejectedRecordWriter;
+        return this;
+    }
+
+    /**
+     * Reads and checks all records without calling updateservice
+     * @param dryRun true to send nothing
+     * @return this handler
+     */
+    UpdateServiceHandler withDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    /**
+     * Retries calls which failed for transient reasons
+     * @param retryPolicy policy to use
+     * @return this handler
+     */
+    UpdateServiceHandler withRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Limits the rate of calls to updateservice and the number of calls in flight
+     * @param rateLimiter limiter to use, null for no limits besides the concurrency
+     * @return this handler
+     */
+    UpdateServiceHandler withRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Pauses all calls to updateservice after a number of consecutive transport failures
+     * and resumes them once updateservice answers a getSchemas probe
+     * @param failureThreshold number of consecutive transport failures, 0 disables the circuit breaker
+     * @param probeIntervalMillis time between probes while paused
+     * @param maxOpenMillis time after which the held records are sent anyway and fail,
+     *                      0 to wait for updateservice forever
+     * @return this handler
+     */
+    UpdateServiceHandler withCircuitBreaker(int failureThreshold, long probeIntervalMillis, long maxOpenMillis) {
+        this.circuitBreakerThreshold = failureThreshold;
+        this.circuitBreakerProbeIntervalMillis = probeIntervalMillis;
+        this.circuitBreakerMaxOpenMillis = maxOpenMillis;
+        return this;
+    }
+
+    /**
+     * Stops sending to an endpoint for a while when it fails a number of calls in a row,
+     * as long as there are other endpoints to send to
+     * @param failureThreshold number of consecutive connection failures or HTTP 5xx responses ejecting an endpoint, 0 to never eject
+     * @param ejectionMillis time an ejected endpoint is out of service
+     * @return this handler
+     */
+    UpdateServiceHandler withEndpointEjection(int failureThreshold, long ejectionMillis) {
+        this.ejectionThreshold = failureThreshold;
+        this.ejectionMillis = ejectionMillis;
+        return this;
+    }
+
+    /**
+     * Reports throughput, latencies and queue depths while the job runs
+     * @param intervalSeconds seconds between reports, 0 disables the periodic reports
+     * @param metricsFile file to write the metrics to in Prometheus text format, may be null
+     * @param metricsPort port to serve the metrics on in Prometheus text format, may be null
+     * @return this handler
+     */
+    UpdateServiceHandler withMetrics(int intervalSeconds, Path metricsFile, Integer metricsPort) {
+        this.metricsIntervalSeconds = intervalSeconds;
+        this.metricsFile = metricsFile;
+        this.metricsPort = metricsPort;
+        return this;
+    }
 
-            final int threadCount = 8;
-            AtomicInteger totalCount = new AtomicInteger(0);
+    /**
+     * Sets the timeouts of calls to updateservice
+     * @param connectTimeoutMillis max time to wait for a connection
+     * @param requestTimeoutMillis max time to wait for the response to a single call
+     * @param deadlineMillis max time from the first attempt at sending a record until it is given up,
+     *                       including retries, 0 means no deadline
+     * @return this handler
+     */
+    UpdateServiceHandler withTimeouts(int connectTimeoutMillis, int requestTimeoutMillis, long deadlineMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /**
+     * Runs the workers on virtual threads, so that a worker blocked in a call to updateservice
+     * does not hold a platform thread. Requires Java 21 or later.
+     * @param virtualThreads true to use virtual threads
+     * @return this handler
+     */
+    UpdateServiceHandler withVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
 
-            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
-            MarcRecord marcRecord = marcReader.read();
-            while (marcRecord != null) {
-                totalCount.getAndIncrement();
+    /**
+     * Source of the records of a job
+     */
+    interface RecordSource extends Closeable {
+        /**
+         * @param nextOrdinal hands out the 1-based position in the input of the record, only called if there is a record
+         * @return the next record, or null at the end of the input
+         * @throws MarcReaderException if the input could not be read
+         */
+        InputRecord read(IntSupplier nextOrdinal) throws MarcReaderException;
 
-                if (errorLimit > -1 && errorCount.get() > errorLimit) {
-                    throw new RuntimeException("Hit error limit, so aborting");
+        @Override
+        default void close() throws IOException {
+        }
+
+        /**
+         * @param resource resource to close together with this source, e.g. the underlying input stream
+         * @return source of the records of this source, also closing the given resource when closed
+         */
+        default RecordSource closing(Closeable resource) {
+            final RecordSource recordSource = this;
+            return new RecordSource() {
+                @Override
+                public InputRecord read(IntSupplier nextOrdinal) throws MarcReaderException {
+                    return recordSource.read(nextOrdinal);
                 }
 
-                final Runnable worker = new UpdateThead(updateServiceConnector, dBuilder, marcRecord);
-                executor.execute(worker);
+                @Override
+                public void close() throws IOException {
+                    try (Closeable closeResource = resource) {
+                        recordSource.close();
+                    }
+                }
+            };
+        }
 
-                marcRecord = marcReader.read();
+        /**
+         * @param marcReader reader to take records from
+         * @return source of the records read by the reader, closing the reader if it is closeable
+         */
+        static RecordSource of(MarcReader marcReader) {
+            return new RecordSource() {
+                @Override
+                public InputRecord read(IntSupplier nextOrdinal) throws MarcReaderException {
+                    final MarcRecord marcRecord = marcReader.read();
+                    return marcRecord != null ? new InputRecord(nextOrdinal.getAsInt(), marcRecord) : null;
+                }
 
-                if (totalCount.get() % 100 == 0 || marcRecord == null) {
-                    executor.shutdown();
-                    executor.awaitTermination(60, TimeUnit.MINUTES);
-                    executor = Executors.newFixedThreadPool(threadCount);
-                    if (marcRecord != null) { // Only print the loop message while actually looping
-                        LOGGER.info("Processed {} records", totalCount);
+                @Override
+                public void close() throws IOException {
+                    if (marcReader instanceof Closeable) {
+                        ((Closeable) marcReader).close();
                     }
                 }
+            };
+        }
+    }
+
+    void run(MarcReader marcReader) {
+        run(RecordSource.of(marcReader));
+    }
+
+    void run(RecordSource recordSource) {
+        run(Collections.singletonList(new JobInput(null, null, () -> recordSource)), 1);
+    }
+
+    /**
+     * Sends the records of all inputs
+     * @param inputs inputs in the order they are to be read
+     * @param inputReaders number of inputs read concurrently
+     */
+    void run(List<JobInput> inputs, int inputReaders) {
+        try {
+            // Marshal the extra data of every route up front, so
+            // that an invalid combination stops the job right away
+            for (RecordRouter.Route route : recordRouter.getRoutes()) {
+                bibliographicRecordExtraDataCache.get(route.getProvider(), route.getPriority());
+            }
+
+            if (dedupeMode != null) {
+                duplicates = findDuplicates(inputs);
+            }
+
+            // Hands out record positions across all inputs
+            final AtomicInteger ordinals = new AtomicInteger(0);
+
+            if (dryRun) {
+                for (JobInput input : inputs) {
+                    dispatch(input, inputs.size() > 1, null, ordinals);
+                }
+            } else {
+                sendAll(inputs, inputReaders, ordinals);
+            }
+
+            int totalCount = 0;
+            int skippedCount = 0;
+            int duplicateCount = 0;
+            int rejectedCount = 0;
+            for (JobInput input : inputs) {
+                totalCount += input.getTotalCount().get();
+                skippedCount += input.getSkippedCount().get();
+                duplicateCount += input.getDuplicateCount().get();
+                rejectedCount += input.getRejectedCount().get();
             }
             LOGGER.info("DONE");
+            if (inputs.size() > 1) {
+                for (JobInput input : inputs) {
+                    LOGGER.info("{}: {} records, {}{}{}{}{}", input.getName(), input.getTotalCount(),
+                            dryRun
+                                    ? input.getSendableCount() + " would be sent"
+                                    : input.getSuccessCount() + " with success, " + input.getErrorCount() + " with error",
+                            recordValidator != null ? ", " + input.getRejectedCount() + " rejected" : "",
+                            checkpointJournal != null ? ", " + input.getSkippedCount() + " skipped" : "",
+                            dedupeMode != null ? ", " + input.getDuplicateCount() + " duplicates" : "",
+                            input.getReadError() != null ? ", not read to the end: " + input.getReadError() : "");
+                }
+            }
             LOGGER.info("Processed a total of {} records", totalCount);
-            LOGGER.info("{} with success", successCount);
-            LOGGER.info("{} with error", errorCount);
-        } catch (ParserConfigurationException e) {
-            throw new RuntimeException();
+            if (dryRun) {
+                LOGGER.info("{} would be sent, nothing was sent since this is a dry run",
+                        totalCount - skippedCount - duplicateCount - rejectedCount);
+            } else {
+                LOGGER.info("{} with success", successCount);
+                LOGGER.info("{} with error", errorCount);
+            }
+            if (!recordRouter.isStatic()) {
+                for (RecordRouter.Route route : recordRouter.getRoutes()) {
+                    LOGGER.info("{} {} with {} ({})", route.getCount(), dryRun ? "would be sent" : "sent",
+                            route, route.getName());
+                }
+            }
+            if (recordValidator != null) {
+                LOGGER.info("{} rejected without being sent, {} of them not selected", rejectedCount, deselectedCount);
+            }
+            if (dedupeMode != null) {
+                LOGGER.info("{} skipped as duplicates of another record with the same id", duplicateCount);
+            }
+            if (!dryRun) {
+                LOGGER.info("{} calls timed out", metrics.getTimeoutCount());
+                if (deadlineMillis > 0) {
+                    LOGGER.info("{} given up at the deadline", deadlineExceededCount);
+                }
+                if (retryPolicy.getMaxRetries() > 0) {
+                    LOGGER.info("{} retries of transient failures", retryCount);
+                }
+            }
+            if (endpointBalancer != null && endpointBalancer.getEndpoints().size() > 1) {
+                final double seconds = Math.max(sendNanos / 1e9, 0.001);
+                for (EndpointBalancer.Endpoint endpoint : endpointBalancer.getEndpoints()) {
+                    LOGGER.info("{}: {} calls, {} calls/s, mean {} ms, {} unavailable, ejected {} time(s)", endpoint,
+                            endpoint.getCallCount(), String.format("%.1f", endpoint.getCallCount() / seconds),
+                            String.format("%.1f", endpoint.getMeanLatencyMillis()),
+                            endpoint.getFailureCount(), endpoint.getEjectionCount());
+                }
+            }
+            if (circuitBreaker != null && circuitBreaker.getOpenCount() > 0) {
+                LOGGER.info("Paused {} time(s) while updateservice was unavailable", circuitBreaker.getOpenCount());
+            }
+            if (rateLimiter != null) {
+                LOGGER.info("{} calls delayed by the rate limit", rateLimiter.getDelayedCount());
+            }
+            if (metrics.getTimeToFirstRequestMillis() >= 0) {
+                LOGGER.info("First request sent {} ms after start", metrics.getTimeToFirstRequestMillis());
+            }
+            LOGGER.info(MetricsReporter.formatLatency("read", metrics.getReadLatency().snapshot()));
+            if (!dryRun) {
+                LOGGER.info(MetricsReporter.formatLatency("convert", metrics.getConvertLatency().snapshot()));
+                LOGGER.info(MetricsReporter.formatLatency("updateRecord", metrics.getUpdateRecordLatency().snapshot()));
+            }
+            if (checkpointJournal != null) {
+                LOGGER.info("{} skipped since the checkpoint journal says they were already processed", skippedCount);
+            }
+        } catch (JAXBException e) {
+            throw new RuntimeException("Could not create extra record data", e);
         } catch (InterruptedException e) {
             LOGGER.error("Interrupt exception - aborting.");
             throw new RuntimeException();
-        } catch (MarcReaderException e) {
-            e.printStackTrace();
         }
     }
 
-    private BibliographicRecord buildRecord(Document content) throws JAXBException {
-        final BibliographicRecord bibliographicRecord = new BibliographicRecord();
-        bibliographicRecord.setRecordSchema(RECORD_SCHEMA);
-        bibliographicRecord.setRecordPacking(RECORD_PACKAGING);
+    /**
+     * Dispatches the records of all inputs to the workers calling updateservice and waits for all of them to be settled
+     */
+    private void sendAll(List<JobInput> inputs, int inputReaders, AtomicInteger ordinals) throws InterruptedException {
+        // The limiter decides how many calls are actually in flight,
+        // so there must be a worker and a connector for every call it could ever allow
+        final int threadCount = concurrencyLimiter.getMaxLimit();
+        // Calls go to the least busy endpoint, so all of them could be in flight against a single endpoint.
+        // Connectors are only created when needed, so a full sized pool per endpoint costs nothing extra.
+        final List<UpdateServiceConnectorPool> connectorPools = new ArrayList<>();
+        for (String updateServiceUrl : updateServiceUrls) {
+            connectorPools.add(new UpdateServiceConnectorPool(threadCount, updateServiceUrl, username, password, validateOnly,
+                    connectTimeoutMillis, requestTimeoutMillis));
+        }
+        endpointBalancer = new EndpointBalancer(connectorPools, ejectionThreshold, ejectionMillis);
+        if (circuitBreakerThreshold > 0) {
+            // The probe has connectors of its own, since the pooled ones may all be held by calls which
+            // hang until the request timeout, and a short timeout, so that it can't outlast the max open time.
+            // The breaker runs one probe at a time, so the connectors are never used concurrently.
+            final int probeTimeoutMillis = (int) Math.min(circuitBreakerProbeIntervalMillis, connectTimeoutMillis);
+            final UpdateServiceConnector[] probeConnectors = new UpdateServiceConnector[connectorPools.size()];
+            circuitBreaker = new CircuitBreaker(circuitBreakerThreshold, circuitBreakerProbeIntervalMillis, circuitBreakerMaxOpenMillis, () -> {
+                // updateservice is available again as soon as one of the endpoints answers
+                Exception failure = null;
+                for (int i = 0; i < probeConnectors.length; i++) {
+                    if (probeConnectors[i] == null) {
+                        probeConnectors[i] = connectorPools.get(i).createUnpooled(probeTimeoutMillis);
+                    }
+                    try {
+                        probeConnectors[i].getSchemas(groupId, trackingId);
+                        return;
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                throw failure;
+            });
+        }
 
-        final ExtraRecordData extraRecordData = new ExtraRecordData();
+        // The reader feeds a bounded queue which is drained by a fixed set of long-lived workers.
+        // When all workers are busy and the queue is full the reader blocks, so memory use
+        // stays bounded no matter how large the input is.
+        final List<BlockingQueue<InputRecord>> queues = new ArrayList<>();
+        if (relatedRecords != null) {
+            // A lane per worker, so the records of a lane are sent one at a time in the order they were dispatched
+            for (int i = 0; i < threadCount; i++) {
+                queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY_PER_THREAD));
+            }
+        } else {
+            queues.add(new ArrayBlockingQueue<>(threadCount * QUEUE_CAPACITY_PER_THREAD));
+        }
+        final MetricsReporter metricsReporter = startMetricsReporter(() -> queues.stream().mapToInt(BlockingQueue::size).sum());
+        final ExecutorService executor = virtualThreads
+                ? Executors.newFixedThreadPool(threadCount, VirtualThreads.newThreadFactory("update-worker-"))
+                : Executors.newFixedThreadPool(threadCount);
+        // Records waiting for a retry sit in the delay queue of the scheduler,
+        // so no worker is blocked while they wait
+        final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+        for (int i = 0; i < threadCount; i++) {
+            executor.execute(new UpdateThead(queues.get(i % queues.size()), retryScheduler));
+        }
 
-        if (provider != null || priority != null) {
-            final BibliographicRecordExtraData bibliographicRecordExtraData = new BibliographicRecordExtraData();
+        final long start = System.nanoTime();
+        try {
+            if (inputReaders > 1 && inputs.size() > 1) {
+                dispatchConcurrently(inputs, Math.min(inputReaders, inputs.size()), queues, ordinals);
+            } else {
+                for (JobInput input : inputs) {
+                    dispatch(input, inputs.size() > 1, queues, ordinals);
+                }
+            }
+            // A record which is still being processed may yet come back for a retry,
+            // so the workers must not be stopped until every record is settled
+            synchronized (outstandingCount) {
+                while (outstandingCount.get() > 0) {
+                    outstandingCount.wait(1000);
+                    checkErrorLimit();
+                }
+            }
+            for (int i = 0; i < threadCount; i++) {
+                queues.get(i % queues.size()).put(END_OF_INPUT);
+            }
+            executor.shutdown();
+            executor.awaitTermination(60, TimeUnit.MINUTES);
+        } finally {
+            sendNanos = System.nanoTime() - start;
+            executor.shutdownNow();
+            retryScheduler.shutdownNow();
+            if (metricsReporter != null) {
+                metricsReporter.close();
+            }
+        }
+    }
 
-            if (priority != null) {
-                bibliographicRecordExtraData.setPriority(priority);
+    /**
+     * Reads all inputs without sending anything. Only the records passing the record validator
+     * take part, so that a copy which is rejected or not selected never hides the copy which is sent.
+     * @return the ordinals of the records not to send
+     */
+    private BitSet findDuplicates(List<JobInput> inputs) {
+        LOGGER.info("Finding duplicate record ids");
+        final long start = System.nanoTime();
+        final AtomicInteger ordinals = new AtomicInteger(0);
+        try (Deduplicator deduplicator = new Deduplicator(dedupeMode)) {
+            for (JobInput input : inputs) {
+                try (RecordSource recordSource = input.open()) {
+                    InputRecord inputRecord = recordSource.read(ordinals::incrementAndGet);
+                    while (inputRecord != null) {
+                        if (isValid(inputRecord)) {
+                            deduplicator.add(inputRecord.getOrdinal(), inputRecord.getRecordId());
+                        }
+                        inputRecord = recordSource.read(ordinals::incrementAndGet);
+                    }
+                } catch (IOException | MarcReaderException e) {
+                    // Reading stops at the same record when sending, which is where the error is reported
+                }
             }
+            final BitSet result = deduplicator.finish();
+            LOGGER.info("Found {} duplicates among {} records in {} ms, sending the {} record of each id",
+                    deduplicator.getDuplicateCount(), deduplicator.getRecordCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), dedupeMode.name().toLowerCase());
+            return result;
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Could not find duplicate record ids: " + e.getMessage(), e);
+        }
+    }
 
-            if (provider != null) {
-                bibliographicRecordExtraData.setProviderName(provider);
+    private void dispatch(JobInput input, boolean logInput, List<BlockingQueue<InputRecord>> queues, AtomicInteger ordinals)
+            throws InterruptedException {
+        if (logInput) {
+            LOGGER.info("Reading {} ({})", input.getName(), input.getFormat());
+        }
+        try (RecordSource recordSource = input.open()) {
+            InputRecord inputRecord = read(recordSource, ordinals);
+            while (inputRecord != null) {
+                inputRecord.setInput(input);
+                input.getTotalCount().incrementAndGet();
+                if (checkpointJournal != null && checkpointJournal.isCompleted(inputRecord.getOrdinal(), inputRecord.getRecordId())) {
+                    input.getSkippedCount().incrementAndGet();
+                } else if (isRejected(inputRecord)) {
+                    input.getRejectedCount().incrementAndGet();
+                } else if (duplicates != null && duplicates.get(inputRecord.getOrdinal())) {
+                    input.getDuplicateCount().incrementAndGet();
+                } else if (dryRun) {
+                    route(inputRecord);
+                    LOGGER.debug("Would send '{}' (record {}) with {}",
+                            inputRecord.getRecordId(), inputRecord.getOrdinal(), inputRecord.getRoute());
+                } else {
+                    final BlockingQueue<InputRecord> queue = queues.get(laneOf(inputRecord, queues.size()));
+                    route(inputRecord);
+                    if (circuitBreaker != null) {
+                        // Stop reading ahead while updateservice is unavailable
+                        circuitBreaker.awaitClosed();
+                    }
+                    outstandingCount.incrementAndGet();
+                    while (!queue.offer(inputRecord, 1, TimeUnit.SECONDS)) {
+                        checkErrorLimit();
+                    }
+                    checkErrorLimit();
+                }
+
+                inputRecord = read(recordSource, ordinals);
             }
+        } catch (IOException | MarcReaderException e) {
+            // The records read so far are still sent, and so are the records of the other inputs
+            LOGGER.error("Could not read {}: {}", input.getName() != null ? input.getName() : "input", e.getMessage());
+            input.setReadError(e.getMessage());
+        }
+    }
 
-            synchronized (bibliographicRecordExtraDataMarshaller) {
-                extraRecordData.getContent().add(bibliographicRecordExtraDataMarshaller
-                        .toXmlDocument(bibliographicRecordExtraData).getDocumentElement());
+    private int laneOf(InputRecord inputRecord, int lanes) {
+        if (lanes == 1) {
+            return 0;
+        }
+        String key;
+        try {
+            key = relatedRecords.keyOf(inputRecord.toMarcRecord());
+        } catch (IllegalArgumentException e) {
+            // The worker reports the record as invalid when it parses it
+            key = inputRecord.getRecordId().getBibliographicRecordId();
+        }
+        return RelatedRecords.laneOf(key, lanes);
+    }
+
+    private void route(InputRecord inputRecord) {
+        RecordRouter.Route route = recordRouter.getDefaultRoute();
+        if (!recordRouter.isStatic()) {
+            try {
+                route = recordRouter.route(inputRecord.toMarcRecord());
+            } catch (IllegalArgumentException e) {
+                // The worker reports the record as invalid when it parses it
             }
         }
+        route.getCount().incrementAndGet();
+        inputRecord.setRoute(route);
+    }
+
+    /**
+     * Runs the record validator without reporting anything
+     * @return true if the record passes, or there is no validator
+     */
+    private boolean isValid(InputRecord inputRecord) {
+        if (recordValidator == null) {
+            return true;
+        }
+        try {
+            return recordValidator.validate(inputRecord) == null;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the record validator, reporting the record if it doesn't pass
+     */
+    private boolean isRejected(InputRecord inputRecord) {
+        if (recordValidator == null) {
+            return false;
+        }
+        RecordValidator.Rejection rejection;
+        try {
+            rejection = recordValidator.validate(inputRecord);
+        } catch (IllegalArgumentException e) {
+            rejection = new RecordValidator.Rejection(e.getMessage(), false);
+        }
+        if (rejection == null) {
+            return false;
+        }
+        if (rejection.isDeselected()) {
+            deselectedCount.incrementAndGet();
+            LOGGER.debug("Skipping '{}' (record {}): {}", inputRecord.getRecordId(), inputRecord.getOrdinal(), rejection.getReason());
+        } else {
+            LOGGER.error("Rejected '{}' (record {}) without sending it: {}",
+                    inputRecord.getRecordId(), inputRecord.getOrdinal(), rejection.getReason());
+        }
+        if (rejectedRecordWriter != null) {
+            rejectedRecordWriter.write(inputRecord, rejection.getReason());
+        }
+        return true;
+    }
+
+    private void dispatchConcurrently(List<JobInput> inputs, int readerCount, List<BlockingQueue<InputRecord>> queues,
+                                      AtomicInteger ordinals) throws InterruptedException {
+        final AtomicInteger nextInput = new AtomicInteger(0);
+        final ExecutorService readers = Executors.newFixedThreadPool(readerCount);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < readerCount; i++) {
+                futures.add(readers.submit(() -> {
+                    int index;
+                    while ((index = nextInput.getAndIncrement()) < inputs.size()) {
+                        dispatch(inputs.get(index), true, queues, ordinals);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // E.g. the error limit being hit
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    private InputRecord read(RecordSource recordSource, AtomicInteger ordinals) throws MarcReaderException {
+        final long start = System.nanoTime();
+        final InputRecord inputRecord = recordSource.read(ordinals::incrementAndGet);
+        metrics.getReadLatency().record(System.nanoTime() - start);
+        return inputRecord;
+    }
+
+    private MetricsReporter startMetricsReporter(IntSupplier queueSize) {
+        if (metricsIntervalSeconds <= 0 && metricsFile == null && metricsPort == null) {
+            return null;
+        }
+        final MetricsReporter metricsReporter = new MetricsReporter(metrics,
+                concurrencyLimiter::getInFlight, concurrencyLimiter::getLimit, queueSize)
+                .withFile(metricsFile);
+        try {
+            metricsReporter.withHttpPort(metricsPort);
+        } catch (IOException e) {
+            metricsReporter.close();
+            throw new RuntimeException("Could not serve metrics on port " + metricsPort);
+        }
+        if (metricsIntervalSeconds > 0) {
+            metricsReporter.start(metricsIntervalSeconds);
+        } else if (metricsFile != null) {
+            metricsReporter.start(METRICS_FILE_INTERVAL_SECONDS, false);
+        }
+        return metricsReporter;
+    }
+
+    private void checkErrorLimit() {
+        if (errorLimit > -1 && errorCount.get() > errorLimit) {
+            throw new RuntimeException("Hit error limit, so aborting");
+        }
+    }
+
+    private BibliographicRecord buildRecord(Document content, RecordRouter.Route route) throws JAXBException {
+        final BibliographicRecord bibliographicRecord = new BibliographicRecord();
+        bibliographicRecord.setRecordSchema(RECORD_SCHEMA);
+        bibliographicRecord.setRecordPacking(RECORD_PACKAGING);
+
+        final ExtraRecordData extraRecordData = new ExtraRecordData();
+
+        final Element bibliographicRecordExtraData = bibliographicRecordExtraDataCache.get(route.getProvider(), route.getPriority());
+        if (bibliographicRecordExtraData != null) {
+            extraRecordData.getContent().add(bibliographicRecordExtraData);
+        }
         bibliographicRecord.setExtraRecordData(extraRecordData);
 
         final RecordData recordData = new RecordData();
@@ -164,86 +812,276 @@ class UpdateServiceHandler {
     }
 
     private class UpdateThead implements Runnable {
-        private final DocumentBuilder dBuilder;
-        private final UpdateServiceConnector updateServiceConnector;
-        private final MarcRecord marcRecord;
+        private final MarcXchangeDomConverter marcXchangeDomConverter = new MarcXchangeDomConverter();
+        private final BlockingQueue<InputRecord> queue;
+        private final ScheduledExecutorService retryScheduler;
 
-        UpdateThead(UpdateServiceConnector updateServiceConnector, DocumentBuilder dBuilder, MarcRecord marcRecord) {
-            this.updateServiceConnector = updateServiceConnector;
-            this.dBuilder = dBuilder;
-            this.marcRecord = marcRecord;
+        UpdateThead(BlockingQueue<InputRecord> queue, ScheduledExecutorService retryScheduler) {
+            this.queue = queue;
+            this.retryScheduler = retryScheduler;
         }
 
         @Override
         public void run() {
             try {
-                try {
-                    final Document doc;
-                    final MarcXchangeV1Writer writer = new MarcXchangeV1Writer();
-                    synchronized (dBuilder) {
-                        doc = dBuilder.parse(new ByteArrayInputStream(writer.writeRecord(marcRecord, StandardCharsets.UTF_8)));
+                InputRecord inputRecord = queue.take();
+                while (inputRecord != END_OF_INPUT) {
+                    Outcome outcome = Outcome.FAILED;
+                    try {
+                        outcome = update(inputRecord);
+                    } catch (RuntimeException e) {
+                        // A single bad record must never take down a worker
+                        LOGGER.error("Caught unexpected exception: {}", e.toString());
+                        failed(inputRecord, e.toString());
                     }
-
-                    final BibliographicRecord bibliographicRecord = buildRecord(doc);
-                    final UpdateRecordResult result = updateServiceConnector.updateRecord(groupId, template, bibliographicRecord, trackingId);
-                    // Error handling. If a record fails in update service we need to know the id of the failed record.
-                    if (result.getUpdateStatus() == UpdateStatusEnum.OK) {
-                        successCount.getAndIncrement();
-                    } else {
-                        errorCount.getAndIncrement(); // Check for error count last so that we get the last error message
-                        final Optional<DataField> field001 = marcRecord.getField(DataField.class, MarcRecord.hasTag("001"));
-                        String recordId = "unknown";
-                        String recordAgencyId = "unknown";
-                        if (field001.isPresent()) {
-                            final DataField dataField001 = field001.get();
-                            for (SubField subField : dataField001.getSubFields()) {
-                                if (subField.getCode() == 'a') {
-                                    recordId = subField.getData();
-                                }
-
-                                if (subField.getCode() == 'b') {
-                                    recordAgencyId = subField.getData();
-                                }
-                            }
+                    if (outcome == Outcome.RETRYING) {
+                        if (relatedRecords == null) {
+                            inputRecord = queue.take();
                         }
-
-                        if (result.getMessages() != null) {
-                            final StringBuilder sb = new StringBuilder();
-                            sb.append("Error updating '").append(recordId).append(":").append(recordAgencyId).append("'. ");
-                            sb.append("Got message: ");
-
-                            final List<String> messageList = new ArrayList<>();
-                            final Messages messages = result.getMessages();
-                            for (MessageEntry message : messages.getMessageEntry()) {
-                                messageList.add(message.getMessage());
-                            }
-                            sb.append(String.join(", ", messageList));
-                            LOGGER.error(sb.toString());
-                        } else if (result.getDoubleRecordEntries() != null) {
-                            final String doubleRecordKey = result.getDoubleRecordKey();
-                            final List<String> messages = getMessages(result);
-                            LOGGER.error("Error updating '{}:{}'. Got double record error with key: {} and message(s): {}", recordId, recordAgencyId, doubleRecordKey, String.join(", ", messages));
+                        continue;
+                    }
+                    if (checkpointJournal != null) {
+                        checkpointJournal.record(inputRecord.getOrdinal(), inputRecord.getRecordId(),
+                                outcome == Outcome.UPDATED ? CheckpointJournal.Outcome.OK : CheckpointJournal.Outcome.FAILED);
+                    }
+                    metrics.recordCompleted();
+                    if (outstandingCount.decrementAndGet() == 0) {
+                        synchronized (outstandingCount) {
+                            outstandingCount.notifyAll();
+                        }
+                    }
+                    final int processed = processedCount.incrementAndGet();
+                    if (processed % 100 == 0) {
+                        if (concurrencyLimiter.isAdaptive()) {
+                            LOGGER.info("Processed {} records (concurrency {})", processed, concurrencyLimiter.getLimit());
                         } else {
-                            LOGGER.error("Error updating '{}:{}'. Got message: {}", recordId, recordAgencyId, result);
+                            LOGGER.info("Processed {} records", processed);
                         }
                     }
-                } catch (WebServiceException | NullPointerException | IllegalArgumentException ex) {
-                    LOGGER.error("Caught exception from update: {}", ex.toString());
-                    errorCount.getAndIncrement();
-                    throw new RuntimeException("Aborting");
-                } catch (SAXException ex) {
-                    LOGGER.error("Could not parse line");
-                    errorCount.getAndIncrement();
-                    throw new RuntimeException("Aborting");
-                } catch (JAXBException e) {
-                    LOGGER.error("Could not create extra record data.");
-                    errorCount.getAndIncrement();
-                    throw new RuntimeException("Aborting");
+                    inputRecord = queue.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private Outcome update(InputRecord inputRecord) {
+            final int attempt = inputRecord.nextAttempt();
+            final long remainingMillis = getRemainingMillis(inputRecord);
+            if (remainingMillis <= 0) {
+                deadlineExceeded(inputRecord, null);
+                return Outcome.FAILED;
+            }
+            try {
+                final long convertStart = System.nanoTime();
+                final Document doc = inputRecord.getMarcRecord() != null
+                        ? marcXchangeDomConverter.toDocument(inputRecord.getMarcRecord())
+                        : marcXchangeDomConverter.parse(inputRecord.getMarcXchange());
+                final BibliographicRecord bibliographicRecord = buildRecord(doc, inputRecord.getRoute());
+                metrics.getConvertLatency().record(System.nanoTime() - convertStart);
+                final UpdateRecordResult result = send(bibliographicRecord, inputRecord);
+                metrics.recordStatus(result.getUpdateStatus());
+                // Error handling. If a record fails in update service we need to know the id of the failed record.
+                if (result.getUpdateStatus() == UpdateStatusEnum.OK) {
+                    successCount.getAndIncrement();
+                    inputRecord.getInput().getSuccessCount().getAndIncrement();
+                    return Outcome.UPDATED;
+                } else {
+                    final String recordId = inputRecord.getRecordId().getBibliographicRecordId();
+                    final String recordAgencyId = inputRecord.getRecordId().getAgencyId();
+
+                    final String reason;
+                    if (result.getMessages() != null) {
+                        final List<String> messageList = new ArrayList<>();
+                        final Messages messages = result.getMessages();
+                        for (MessageEntry message : messages.getMessageEntry()) {
+                            messageList.add(message.getMessage());
+                        }
+                        reason = String.join(", ", messageList);
+                        LOGGER.error("Error updating '{}:{}'. Got message: {}", recordId, recordAgencyId, reason);
+                    } else if (result.getDoubleRecordEntries() != null) {
+                        final String doubleRecordKey = result.getDoubleRecordKey();
+                        final List<String> messages = getMessages(result);
+                        reason = "Double record with key " + doubleRecordKey + ": " + String.join(", ", messages);
+                        LOGGER.error("Error updating '{}:{}'. Got double record error with key: {} and message(s): {}", recordId, recordAgencyId, doubleRecordKey, String.join(", ", messages));
+                    } else {
+                        reason = result.getUpdateStatus().toString();
+                        LOGGER.error("Error updating '{}:{}'. Got message: {}", recordId, recordAgencyId, result);
+                    }
+                    failed(inputRecord, reason);
+                }
+            } catch (WebServiceException ex) {
+                if (circuitBreaker != null && circuitBreaker.isHolding() && retryPolicy.canResend(ex)) {
+                    // Hold the record until updateservice is back, without spending an attempt
+                    inputRecord.cancelAttempt();
+                    inputRecord.restartClock();
+                    return requeue(inputRecord, 0, ex);
+                }
+                if (retryPolicy.shouldRetry(attempt, ex)) {
+                    final long delay = retryPolicy.getDelayMillis(attempt);
+                    if (delay >= getRemainingMillis(inputRecord)) {
+                        deadlineExceeded(inputRecord, ex);
+                        return Outcome.FAILED;
+                    }
+                    final Outcome outcome = requeue(inputRecord, delay, ex);
+                    if (outcome == Outcome.RETRYING) {
+                        LOGGER.warn("Retrying '{}' in {} ms after attempt {} failed with: {}",
+                                inputRecord.getRecordId(), delay, attempt, ex.toString());
+                        retryCount.getAndIncrement();
+                    }
+                    return outcome;
+                }
+                LOGGER.error("Caught exception from update: {}", ex.toString());
+                failed(inputRecord, attempt > 1 ? ex + " (gave up after " + attempt + " attempts)" : ex.toString());
+            } catch (NullPointerException | IllegalArgumentException ex) {
+                LOGGER.error("Caught exception from update: {}", ex.toString());
+                failed(inputRecord, ex.toString());
+            } catch (JAXBException e) {
+                LOGGER.error("Could not create extra record data.");
+                failed(inputRecord, "Could not create extra record data");
+            }
+            return Outcome.FAILED;
+        }
+
+        private long getRemainingMillis(InputRecord inputRecord) {
+            if (deadlineMillis <= 0) {
+                return Long.MAX_VALUE;
+            }
+            return deadlineMillis - inputRecord.getMillisSinceStart();
+        }
+
+        private void deadlineExceeded(InputRecord inputRecord, WebServiceException lastFailure) {
+            deadlineExceededCount.getAndIncrement();
+            final String reason = "Deadline of " + deadlineMillis + " ms exceeded after " + inputRecord.getAttempts() + " attempts" +
+                    (lastFailure != null ? ", last failure: " + lastFailure : "");
+            LOGGER.error("Error updating '{}'. {}", inputRecord.getRecordId(), reason);
+            failed(inputRecord, reason);
+        }
+
+        private Outcome requeue(InputRecord inputRecord, long delay, WebServiceException failure) {
+            if (relatedRecords != null) {
+                // The next records of the lane may depend on this one, so the lane waits for the retry
+                try {
+                    Thread.sleep(delay);
+                    return Outcome.RETRYING;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOGGER.error("Caught exception from update: {}", failure.toString());
+                    failed(inputRecord, failure.toString());
+                    return Outcome.FAILED;
+                }
+            }
+            try {
+                retryScheduler.schedule(() -> putBack(inputRecord), delay, TimeUnit.MILLISECONDS);
+                return Outcome.RETRYING;
+            } catch (RejectedExecutionException e) {
+                // The job is being aborted, so there is nobody left to send the record again
+                LOGGER.error("Caught exception from update: {}", failure.toString());
+                failed(inputRecord, failure.toString());
+                return Outcome.FAILED;
+            }
+        }
+
+        /**
+         * Puts a record which is due for a retry back on the queue. The reader keeps the queue full,
+         * so rather than blocking the scheduler, and every other due retry with it, a record which
+         * doesn't fit is tried again a little later.
+         */
+        private void putBack(InputRecord inputRecord) {
+            if (queue.offer(inputRecord)) {
+                return;
+            }
+            try {
+                retryScheduler.schedule(() -> putBack(inputRecord), REQUEUE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Only happens when the job is aborted
+            }
+        }
+
+        private void failed(InputRecord inputRecord, String reason) {
+            // Check for error count last so that we get the last error message
+            errorCount.getAndIncrement();
+            inputRecord.getInput().getErrorCount().getAndIncrement();
+            if (failedRecordWriter != null) {
+                failedRecordWriter.write(inputRecord, reason);
+            }
+        }
+
+        private UpdateRecordResult send(BibliographicRecord bibliographicRecord, InputRecord inputRecord) {
+            boolean concurrencyAcquired = false;
+            boolean rateAcquired = false;
+            EndpointBalancer.Endpoint endpoint = null;
+            UpdateServiceConnector updateServiceConnector = null;
+            try {
+                if (circuitBreaker != null) {
+                    circuitBreaker.awaitClosed();
+                }
+                concurrencyLimiter.acquire();
+                concurrencyAcquired = true;
+                // Last before the call itself, so that the in-flight limit of the schedule
+                // only counts calls, not workers waiting for the concurrency limiter
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                    rateAcquired = true;
+                }
+                endpoint = endpointBalancer.choose();
+                updateServiceConnector = endpoint.getConnectorPool().take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to call updateservice", e);
+            } finally {
+                if (updateServiceConnector == null) {
+                    // Give back what was acquired before the failure, e.g. when the WSDL could not be fetched
+                    if (endpoint != null) {
+                        endpointBalancer.cancel(endpoint);
+                    }
+                    if (rateAcquired) {
+                        rateLimiter.release();
+                    }
+                    if (concurrencyAcquired) {
+                        concurrencyLimiter.cancel();
+                    }
+                }
+            }
+            metrics.recordRequestStart();
+            final long start = System.nanoTime();
+            boolean overloaded = false;
+            boolean unavailable = false;
+            try {
+                if (deadlineMillis > 0) {
+                    // Waiting for a turn also counts towards the deadline
+                    final long remainingMillis = Math.max(1, getRemainingMillis(inputRecord));
+                    updateServiceConnector.limitRequestTimeout((int) Math.min(remainingMillis, Integer.MAX_VALUE));
+                }
+                final UpdateRecordResult result = updateServiceConnector.updateRecord(groupId, inputRecord.getRoute().getTemplate(), bibliographicRecord, trackingId);
+                if (circuitBreaker != null) {
+                    circuitBreaker.recordSuccess();
+                }
+                return result;
+            } catch (WebServiceException e) {
+                overloaded = true;
+                metrics.recordException();
+                if (RetryPolicy.isTimeout(e)) {
+                    metrics.recordTimeout();
+                }
+                unavailable = RetryPolicy.isRetryable(e);
+                if (circuitBreaker != null) {
+                    if (unavailable) {
+                        circuitBreaker.recordFailure();
+                    } else {
+                        circuitBreaker.recordSuccess();
+                    }
+                }
+                throw e;
+            } finally {
+                final long latency = System.nanoTime() - start;
+                endpoint.getConnectorPool().release(updateServiceConnector);
+                endpointBalancer.release(endpoint, latency, unavailable);
+                if (rateLimiter != null) {
+                    rateLimiter.release();
                 }
-            } catch (IOException ex) {
-                LOGGER.error("Could not read line");
-                errorCount.getAndIncrement();
-                throw new RuntimeException("Aborting");
+                concurrencyLimiter.release(latency, overloaded);
+                metrics.getUpdateRecordLatency().record(latency);
             }
         }
     }
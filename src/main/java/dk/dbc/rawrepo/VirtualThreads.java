@@ -0,0 +1,59 @@
+package dk.dbc.rawrepo;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads when running on Java 21 or later.
+ * <p>
+ * The tool is built for Java 11, so the virtual thread API is looked up by reflection.
+ * A virtual thread blocked in an updateRecord call releases its carrier thread, so
+ * hundreds of calls in flight cost a few kilobytes of heap each instead of a platform
+ * thread with a stack of its own.
+ */
+public class VirtualThreads {
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param namePrefix prefix of the thread names, which are suffixed by a counter
+     * @return factory creating virtual threads
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix) throws UnsupportedOperationException {
+        if (OF_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later, this is Java " +
+                    System.getProperty("java.specification.version"));
+        }
+        try {
+            // Methods must be looked up on the public interface, the builder implementation is not accessible
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object namedBuilder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create virtual thread factory", e);
+        }
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            // Virtual threads were a preview feature in Java 19 and 20, where this fails unless previews are enabled
+            ofVirtual.invoke(null);
+            return ofVirtual;
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+}
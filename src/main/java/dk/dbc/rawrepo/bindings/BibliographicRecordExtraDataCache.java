@@ -0,0 +1,116 @@
+package dk.dbc.rawrepo.bindings;
+
+import jakarta.xml.bind.JAXBException;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of updateRecordExtraData elements keyed by (provider, priority).
+ * <p>
+ * Every distinct combination is only marshalled once. The result is kept as
+ * immutable XML bytes which are shared between all threads. Each thread turns
+ * them into its own DOM element the first time it needs the combination and
+ * then reuses that element for all of its following requests. A DOM is never
+ * shared between threads, and no lock is taken once the element exists.
+ * Instances of this class are thread safe.
+ */
+public class BibliographicRecordExtraDataCache {
+    private final BibliographicRecordExtraDataMarshaller marshaller = new BibliographicRecordExtraDataMarshaller();
+    private final Map<Key, byte[]> templates = new ConcurrentHashMap<>();
+    private final ThreadLocal<ThreadCache> threadCaches = ThreadLocal.withInitial(ThreadCache::new);
+
+    /**
+     * Returns the updateRecordExtraData element for the given provider and priority.
+     * The element must only be used by the calling thread.
+     * @param provider provider name, may be null
+     * @param priority priority, may be null
+     * @return updateRecordExtraData element or null if both provider and priority are null
+     * @throws JAXBException if the extra data could not be marshalled
+     */
+    public Element get(String provider, Integer priority) throws JAXBException {
+        if (provider == null && priority == null) {
+            return null;
+        }
+        final Key key = new Key(provider, priority);
+        final ThreadCache threadCache = threadCaches.get();
+        Element element = threadCache.elements.get(key);
+        if (element == null) {
+            element = threadCache.parse(getTemplate(key));
+            threadCache.elements.put(key, element);
+        }
+        return element;
+    }
+
+    private byte[] getTemplate(Key key) throws JAXBException {
+        byte[] template = templates.get(key);
+        if (template == null) {
+            final BibliographicRecordExtraData data = new BibliographicRecordExtraData();
+            data.setProviderName(key.provider);
+            data.setPriority(key.priority);
+            template = marshaller.toXmlBytes(data);
+            // Another thread may have won the race, which is harmless since the result is the same
+            templates.putIfAbsent(key, template);
+        }
+        return template;
+    }
+
+    private static class ThreadCache {
+        private final Map<Key, Element> elements = new HashMap<>();
+        private final DocumentBuilder documentBuilder;
+
+        private ThreadCache() {
+            try {
+                final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+                documentBuilderFactory.setNamespaceAware(true);
+                documentBuilder = documentBuilderFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Element parse(byte[] template) throws JAXBException {
+            try {
+                return documentBuilder.parse(new ByteArrayInputStream(template)).getDocumentElement();
+            } catch (SAXException | IOException e) {
+                throw new JAXBException("Unable to parse marshalled extra data", e);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String provider;
+        private final Integer priority;
+
+        private Key(String provider, Integer priority) {
+            this.provider = provider;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return Objects.equals(provider, key.provider) && Objects.equals(priority, key.priority);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(provider, priority);
+        }
+    }
+}
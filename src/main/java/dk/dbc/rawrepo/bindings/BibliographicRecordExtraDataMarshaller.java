@@ -6,21 +6,27 @@ import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import javax.xml.transform.dom.DOMResult;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 
 /**
  * Handles marshalling of dk.dbc.dataio.sink.openupdate.bindings.BibliographicRecordExtraData
+ * <p>
+ * A new JAXB marshaller is created for every call from a JAXBContext shared by all
+ * instances, so instances of this class are thread safe. The context is only created
+ * when the first call is made. Note that --priority defaults to 1000, so a job started
+ * from the command line always has extra data and always creates the context.
  */
 public class BibliographicRecordExtraDataMarshaller {
-    private final Marshaller marshaller;
+    private static class ContextHolder {
+        private static final JAXBContext JAXB_CONTEXT = createContext();
 
-    public BibliographicRecordExtraDataMarshaller() {
-        try {
-            marshaller = JAXBContext.newInstance(BibliographicRecordExtraData.class).createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_ENCODING, StandardCharsets.UTF_8.toString());
-            marshaller.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, BibliographicRecordExtraData.NAMESPACE);
-        } catch (JAXBException e) {
-            throw new IllegalStateException(e);
+        private static JAXBContext createContext() {
+            try {
+                return JAXBContext.newInstance(BibliographicRecordExtraData.class);
+            } catch (JAXBException e) {
+                throw new IllegalStateException(e);
+            }
         }
     }
 
@@ -33,7 +39,27 @@ public class BibliographicRecordExtraDataMarshaller {
      */
     public Document toXmlDocument(BibliographicRecordExtraData data) throws IllegalArgumentException, JAXBException {
         final DOMResult domResult = new DOMResult();
-        marshaller.marshal(data, domResult);
+        createMarshaller().marshal(data, domResult);
         return (Document) domResult.getNode();
     }
+
+    /**
+     * Converts a BibliographicRecordExtraData instance to UTF-8 encoded XML
+     * @param data BibliographicRecordExtraData to convert
+     * @return XML representation
+     * @throws IllegalArgumentException if given null-valued argument
+     * @throws JAXBException If any unexpected problem occurs during the marshalling.
+     */
+    public byte[] toXmlBytes(BibliographicRecordExtraData data) throws IllegalArgumentException, JAXBException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        createMarshaller().marshal(data, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private Marshaller createMarshaller() throws JAXBException {
+        final Marshaller marshaller = ContextHolder.JAXB_CONTEXT.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_ENCODING, StandardCharsets.UTF_8.toString());
+        marshaller.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, BibliographicRecordExtraData.NAMESPACE);
+        return marshaller;
+    }
 }
@@ -0,0 +1,136 @@
+package dk.dbc.rawrepo.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with HDR-style log-linear buckets.
+ * <p>
+ * Values below 64 ns get a bucket each. Above that every power of two is split into
+ * 32 equally wide buckets, so any recorded value is reported with a relative error of
+ * at most about 3%, using a fixed 15 KB of memory regardless of the number of values.
+ * Recording is a couple of atomic increments and safe to do from any number of threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+    private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param nanos latency to record, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+    }
+
+    /**
+     * @return copy of the current state, which is not affected by later recordings
+     */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValueInBucket(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        if (mantissa + 1 > Long.MAX_VALUE >>> shift) {
+            // The top bucket ends past the largest long
+            return Long.MAX_VALUE;
+        }
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Immutable state of a histogram at some point in time
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * @param earlier snapshot of the same histogram taken earlier
+         * @return the values recorded between the earlier snapshot and this one
+         */
+        public Snapshot since(Snapshot earlier) {
+            final long[] difference = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference, count - earlier.count, sum - earlier.sum);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return sum of all values in nanoseconds
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @param percentile percentile between 0 and 100
+         * @return smallest value, in nanoseconds, which at least the given percentage
+         * of all values are less than or equal to, or 0 if there are no values
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValueInBucket(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * @return largest value in nanoseconds, or 0 if there are no values
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValueInBucket(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package dk.dbc.rawrepo.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import dk.dbc.oss.ns.catalogingupdate.UpdateStatusEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Periodically reports {@link UpdateMetrics} as a compact log line and, optionally,
+ * in the Prometheus text format to a file and/or an HTTP endpoint.
+ * <p>
+ * The log line shows the throughput and latencies of the last interval, which makes it
+ * easy to see whether time is spent in this tool (read, convert) or in updateservice
+ * (updateRecord, in flight). The Prometheus output holds totals since the start of the job.
+ * The file is replaced atomically, so it can be picked up by the node exporter textfile collector.
+ */
+public class MetricsReporter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsReporter.class);
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 1.0};
+
+    private final UpdateMetrics metrics;
+    private final IntSupplier inFlight;
+    private final IntSupplier concurrencyLimit;
+    private final IntSupplier queueDepth;
+    private final ScheduledExecutorService scheduler;
+    private HttpServer httpServer;
+    private Path file;
+    private boolean logLine = true;
+
+    private long lastReportAt;
+    private long lastCompletedCount;
+    private LatencyHistogram.Snapshot lastRead;
+    private LatencyHistogram.Snapshot lastConvert;
+    private LatencyHistogram.Snapshot lastUpdateRecord;
+
+    /**
+     * @param metrics metrics to report
+     * @param inFlight number of updateRecord calls in flight
+     * @param concurrencyLimit current limit on the number of calls in flight
+     * @param queueDepth number of records read but not yet taken by a worker
+     */
+    public MetricsReporter(UpdateMetrics metrics, IntSupplier inFlight, IntSupplier concurrencyLimit, IntSupplier queueDepth) {
+        this.metrics = metrics;
+        this.inFlight = inFlight;
+        this.concurrencyLimit = concurrencyLimit;
+        this.queueDepth = queueDepth;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lastReportAt = System.nanoTime();
+        lastRead = metrics.getReadLatency().snapshot();
+        lastConvert = metrics.getConvertLatency().snapshot();
+        lastUpdateRecord = metrics.getUpdateRecordLatency().snapshot();
+    }
+
+    /**
+     * Also writes the metrics in Prometheus text format to the given file on every report
+     * @param file file to write, may be null
+     * @return this reporter
+     */
+    public MetricsReporter withFile(Path file) {
+        this.file = file;
+        return this;
+    }
+
+    /**
+     * Also serves the metrics in Prometheus text format on http://host:port/metrics
+     * @param port port to listen on, may be null
+     * @return this reporter
+     * @throws IOException if the port could not be bound
+     */
+    public MetricsReporter withHttpPort(Integer port) throws IOException {
+        if (port != null) {
+            httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+            httpServer.createContext("/metrics", exchange -> {
+                final byte[] body = toPrometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            });
+            httpServer.start();
+            LOGGER.info("Serving metrics on http://localhost:{}/metrics", httpServer.getAddress().getPort());
+        }
+        return this;
+    }
+
+    /**
+     * Starts reporting
+     * @param intervalSeconds seconds between reports
+     * @return this reporter
+     */
+    public MetricsReporter start(int intervalSeconds) {
+        return start(intervalSeconds, true);
+    }
+
+    /**
+     * Starts reporting
+     * @param intervalSeconds seconds between reports
+     * @param logLine false to only update the metrics file, without logging
+     * @return this reporter
+     */
+    public MetricsReporter start(int intervalSeconds, boolean logLine) {
+        this.logLine = logLine;
+        scheduler.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return this;
+    }
+
+    /**
+     * Stops reporting, after writing the final totals to the metrics file
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        writeFile();
+    }
+
+    private synchronized void report() {
+        try {
+            final long now = System.nanoTime();
+            final long completedCount = metrics.getCompletedCount();
+            final LatencyHistogram.Snapshot read = metrics.getReadLatency().snapshot();
+            final LatencyHistogram.Snapshot convert = metrics.getConvertLatency().snapshot();
+            final LatencyHistogram.Snapshot updateRecord = metrics.getUpdateRecordLatency().snapshot();
+
+            final double seconds = (now - lastReportAt) / 1e9;
+            final StringBuilder line = new StringBuilder();
+            line.append(String.format(Locale.ROOT, "%.1f rec/s, %d done, in flight %d/%d, queued %d",
+                    (completedCount - lastCompletedCount) / seconds, completedCount,
+                    inFlight.getAsInt(), concurrencyLimit.getAsInt(), queueDepth.getAsInt()));
+            appendLatency(line, "read", read.since(lastRead));
+            appendLatency(line, "convert", convert.since(lastConvert));
+            appendLatency(line, "updateRecord", updateRecord.since(lastUpdateRecord));
+            line.append(" | ");
+            for (UpdateStatusEnum status : UpdateStatusEnum.values()) {
+                line.append(status.name()).append(' ').append(metrics.getStatusCount(status)).append(", ");
+            }
+            line.append("exceptions ").append(metrics.getExceptionCount())
+                    .append(" (timeouts ").append(metrics.getTimeoutCount()).append(')');
+            if (logLine) {
+                LOGGER.info(line.toString());
+            }
+
+            lastReportAt = now;
+            lastCompletedCount = completedCount;
+            lastRead = read;
+            lastConvert = convert;
+            lastUpdateRecord = updateRecord;
+
+            writeFile();
+        } catch (RuntimeException e) {
+            // An exception would silently cancel all future reports
+            LOGGER.error("Could not report metrics: {}", e.toString());
+        }
+    }
+
+    private void writeFile() {
+        if (file == null) {
+            return;
+        }
+        try {
+            final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, toPrometheusText().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("Could not write metrics to {}: {}", file, e.toString());
+        }
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format
+     */
+    public String toPrometheusText() {
+        final StringBuilder text = new StringBuilder();
+        text.append("# HELP rrupdate_records_completed_total Records which have reached their final outcome.\n")
+                .append("# TYPE rrupdate_records_completed_total counter\n")
+                .append("rrupdate_records_completed_total ").append(metrics.getCompletedCount()).append('\n');
+        text.append("# HELP rrupdate_update_status_total updateRecord results by update status.\n")
+                .append("# TYPE rrupdate_update_status_total counter\n");
+        for (UpdateStatusEnum status : UpdateStatusEnum.values()) {
+            text.append("rrupdate_update_status_total{status=\"").append(status.value()).append("\"} ")
+                    .append(metrics.getStatusCount(status)).append('\n');
+        }
+        text.append("# HELP rrupdate_update_exceptions_total updateRecord calls which ended without a result.\n")
+                .append("# TYPE rrupdate_update_exceptions_total counter\n")
+                .append("rrupdate_update_exceptions_total ").append(metrics.getExceptionCount()).append('\n');
+        text.append("# HELP rrupdate_update_timeouts_total updateRecord calls cancelled by the connect or request timeout.\n")
+                .append("# TYPE rrupdate_update_timeouts_total counter\n")
+                .append("rrupdate_update_timeouts_total ").append(metrics.getTimeoutCount()).append('\n');
+        appendGauge(text, "rrupdate_in_flight", "updateRecord calls in flight.", inFlight.getAsInt());
+        appendGauge(text, "rrupdate_concurrency_limit", "Current limit on updateRecord calls in flight.", concurrencyLimit.getAsInt());
+        appendGauge(text, "rrupdate_queue_depth", "Records read but not yet taken by a worker.", queueDepth.getAsInt());
+        appendSummary(text, "rrupdate_read_seconds", "Time spent reading a record from the input.",
+                metrics.getReadLatency().snapshot());
+        appendSummary(text, "rrupdate_convert_seconds", "Time spent converting a record to an updateRecord request.",
+                metrics.getConvertLatency().snapshot());
+        appendSummary(text, "rrupdate_update_record_seconds", "Duration of updateRecord calls.",
+                metrics.getUpdateRecordLatency().snapshot());
+        return text.toString();
+    }
+
+    /**
+     * @param name name of the stage
+     * @param snapshot latencies of the stage
+     * @return one-line summary of the latencies, e.g. for the end of a job
+     */
+    public static String formatLatency(String name, LatencyHistogram.Snapshot snapshot) {
+        return String.format(Locale.ROOT, "%s p50 %s p99 %s max %s ms", name,
+                millis(snapshot.getValueAtPercentile(50)),
+                millis(snapshot.getValueAtPercentile(99)),
+                millis(snapshot.getMax()));
+    }
+
+    private static void appendLatency(StringBuilder line, String name, LatencyHistogram.Snapshot snapshot) {
+        line.append(" | ").append(formatLatency(name, snapshot));
+    }
+
+    private static void appendGauge(StringBuilder text, String name, String help, int value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendSummary(StringBuilder text, String name, String help, LatencyHistogram.Snapshot snapshot) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(snapshot.getValueAtPercentile(quantile * 100))).append('\n');
+        }
+        text.append(name).append("_sum ").append(seconds(snapshot.getSum())).append('\n')
+                .append(name).append("_count ").append(snapshot.getCount()).append('\n');
+    }
+
+    private static String millis(long nanos) {
+        final double millis = nanos / 1e6;
+        return String.format(Locale.ROOT, millis < 10 ? "%.2f" : "%.0f", millis);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+}
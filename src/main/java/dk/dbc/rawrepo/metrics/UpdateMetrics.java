@@ -0,0 +1,111 @@
+package dk.dbc.rawrepo.metrics;
+
+import dk.dbc.oss.ns.catalogingupdate.UpdateStatusEnum;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the stages of a job: reading (parsing) a record
+ * from the input, converting it to an updateservice request and the updateRecord call itself.
+ * Instances of this class are thread safe.
+ */
+public class UpdateMetrics {
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram convertLatency = new LatencyHistogram();
+    private final LatencyHistogram updateRecordLatency = new LatencyHistogram();
+    private final Map<UpdateStatusEnum, LongAdder> statusCounts = new EnumMap<>(UpdateStatusEnum.class);
+    private final LongAdder exceptionCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder completedCount = new LongAdder();
+    private final AtomicLong firstRequestTimeMillis = new AtomicLong(-1);
+
+    public UpdateMetrics() {
+        for (UpdateStatusEnum status : UpdateStatusEnum.values()) {
+            statusCounts.put(status, new LongAdder());
+        }
+    }
+
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    public LatencyHistogram getConvertLatency() {
+        return convertLatency;
+    }
+
+    public LatencyHistogram getUpdateRecordLatency() {
+        return updateRecordLatency;
+    }
+
+    /**
+     * Registers the status returned by an updateRecord call
+     * @param status update status
+     */
+    public void recordStatus(UpdateStatusEnum status) {
+        statusCounts.get(status).increment();
+    }
+
+    /**
+     * Registers an updateRecord call which ended with an exception instead of a result
+     */
+    public void recordException() {
+        exceptionCount.increment();
+    }
+
+    /**
+     * Registers an updateRecord call which was cancelled because it exceeded its timeout.
+     * The call must also be registered using {@link #recordException()}.
+     */
+    public void recordTimeout() {
+        timeoutCount.increment();
+    }
+
+    /**
+     * Registers the start of an updateRecord call. The time of the first call is kept, since
+     * the time from the start of the JVM until then is the startup cost of a job.
+     */
+    public void recordRequestStart() {
+        if (firstRequestTimeMillis.get() < 0) {
+            firstRequestTimeMillis.compareAndSet(-1, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Registers a record which has reached its final outcome
+     */
+    public void recordCompleted() {
+        completedCount.increment();
+    }
+
+    public long getStatusCount(UpdateStatusEnum status) {
+        return statusCounts.get(status).sum();
+    }
+
+    public long getExceptionCount() {
+        return exceptionCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    /**
+     * @return milliseconds from the start of the JVM until the first updateRecord call, or -1 if no call has been made
+     */
+    public long getTimeToFirstRequestMillis() {
+        final long firstRequestTime = firstRequestTimeMillis.get();
+        if (firstRequestTime < 0) {
+            return -1;
+        }
+        // Looked up here rather than up front, as loading the management classes is itself a startup cost
+        return firstRequestTime - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+}
@@ -2,6 +2,8 @@
 rrupdate_home="$HOME/.rrupdate"
 rrupdate_archive="${rrupdate_home}/archive"
 rrupdate_bin="${rrupdate_home}/bin"
+rrupdate_cds="${rrupdate_home}/cds"
+rrupdate_cds_archive="${rrupdate_cds}/rrupdate.jsa"
 rrupdate_url=http://mavenrepo.dbc.dk/content/repositories/releases/dk/dbc/rawrepo-update-tool
 
 function get_current_version {
@@ -22,6 +24,32 @@ function get_latest_version {
     echo ${latest_version}
 }
 
+# Class data sharing: the classes loaded by a training run are stored in an archive which
+# the JVM maps at startup instead of loading and verifying them again on every run.
+# The archive only works with the java it was created by, so it is recreated by --install
+# and --selfupdate, and can be recreated with --cds after upgrading java.
+function create_cds_archive {
+    local jar=${rrupdate_archive}/rrupdate-current.jar
+    mkdir -p "$rrupdate_cds"
+    rm -f "$rrupdate_cds_archive"
+    echo "Creating class data sharing archive"
+    unzip -qo ${jar} cds-training.xml -d "$rrupdate_cds"
+    # The training run sends a single record to a port nobody listens on
+    java -Xshare:off -XX:DumpLoadedClassList="${rrupdate_cds}/classes.lst" -jar ${jar} \
+        -u http://127.0.0.1:9/UpdateService/2.0 --retries 0 "${rrupdate_cds}/cds-training.xml" > /dev/null 2>&1
+    java -Xshare:dump -XX:SharedClassListFile="${rrupdate_cds}/classes.lst" \
+        -XX:SharedArchiveFile="$rrupdate_cds_archive" -cp ${jar} > /dev/null 2>&1 ||
+        rm -f "$rrupdate_cds_archive"
+}
+
+function run {
+    if [ -f "$rrupdate_cds_archive" ]; then
+        java -XX:SharedArchiveFile="$rrupdate_cds_archive" -Xshare:auto -jar ${rrupdate_archive}/rrupdate-current.jar "$@"
+    else
+        java -jar ${rrupdate_archive}/rrupdate-current.jar "$@"
+    fi
+}
+
 function install {
     if [ -z $(which curl) ]; then
         echo "curl not found."
@@ -74,6 +102,7 @@ function install {
             unzip -o ${rrupdate_archive}/rrupdate-current.jar rrupdate.sh -d ${rrupdate_bin}
             chmod a+x ${rrupdate_bin}/rrupdate.sh
             echo ${latest_version} > ${rrupdate_home}/version
+            create_cds_archive
         fi
 
         if [ ! -f ~/.bash_aliases ]; then
@@ -119,12 +148,16 @@ case "$1" in
     -h)
     echo "usage: rrupdate --version"
     echo "usage: rrupdate --selfupdate"
-    java -jar ${rrupdate_archive}/rrupdate-current.jar -h
+    echo "usage: rrupdate --cds"
+    run -h
     ;;
     --selfupdate)
     selfupdate
     ;;
+    --cds)
+    create_cds_archive
+    ;;
     *)
-    java -jar ${rrupdate_archive}/rrupdate-current.jar "$@"
+    run "$@"
     ;;
 esac
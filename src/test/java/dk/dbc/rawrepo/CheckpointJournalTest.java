@@ -0,0 +1,173 @@
+package dk.dbc.rawrepo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckpointJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumeSkipsOnlySuccessfulRecords() throws IOException {
+        final Path path = dir.resolve("journal");
+        try (CheckpointJournal journal = CheckpointJournal.open(path, false)) {
+            journal.record(1, id(1), CheckpointJournal.Outcome.OK);
+            journal.record(2, id(2), CheckpointJournal.Outcome.FAILED);
+            journal.record(4, id(4), CheckpointJournal.Outcome.OK);
+        }
+
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.getCompletedCount(), is(2));
+            assertThat(journal.isCompleted(1, id(1)), is(true));
+            assertThat(journal.isCompleted(2, id(2)), is(false));
+            assertThat(journal.isCompleted(3, id(3)), is(false));
+            assertThat(journal.isCompleted(4, id(4)), is(true));
+            assertThat(journal.isCompleted(5, id(5)), is(false));
+        }
+    }
+
+    @Test
+    void replaysOrdinalsInAnyOrderAndFarApart() throws IOException {
+        final Path path = dir.resolve("journal");
+        final List<Integer> ordinals = Arrays.asList(5000, 3, 70000, 1, 64, 63, 65);
+        try (CheckpointJournal journal = CheckpointJournal.open(path, false)) {
+            for (int ordinal : ordinals) {
+                journal.record(ordinal, id(ordinal), CheckpointJournal.Outcome.OK);
+            }
+        }
+
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.getCompletedCount(), is(ordinals.size()));
+            for (int ordinal : ordinals) {
+                assertThat("ordinal " + ordinal, journal.isCompleted(ordinal, id(ordinal)), is(true));
+            }
+            for (int ordinal : Arrays.asList(2, 4, 62, 66, 4999, 5001, 69999, 70001)) {
+                assertThat("ordinal " + ordinal, journal.isCompleted(ordinal, id(ordinal)), is(false));
+            }
+        }
+    }
+
+    @Test
+    void laterSuccessOfAFailedRecordCounts() throws IOException {
+        final Path path = dir.resolve("journal");
+        try (CheckpointJournal journal = CheckpointJournal.open(path, false)) {
+            journal.record(1, id(1), CheckpointJournal.Outcome.FAILED);
+        }
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.isCompleted(1, id(1)), is(false));
+            journal.record(1, id(1), CheckpointJournal.Outcome.OK);
+        }
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.getCompletedCount(), is(1));
+            assertThat(journal.isCompleted(1, id(1)), is(true));
+        }
+    }
+
+    @Test
+    void changedInputIsDetected() throws IOException {
+        final Path path = dir.resolve("journal");
+        try (CheckpointJournal journal = CheckpointJournal.open(path, false)) {
+            journal.record(1, id(1), CheckpointJournal.Outcome.OK);
+        }
+
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThrows(IllegalStateException.class, () -> journal.isCompleted(1, id(2)));
+            assertThrows(IllegalStateException.class, () -> journal.isCompleted(1, new RecordId("00000001", "710100")));
+        }
+    }
+
+    @Test
+    void tornLastLineIsIgnoredAndTerminated() throws IOException {
+        final Path path = dir.resolve("journal");
+        Files.write(path, ("1\t" + id(1) + "\tOK\n" +
+                "2\t" + id(2) + "\tOK\n" +
+                "3\t" + id(3).getBibliographicRecordId().substring(0, 4)).getBytes(StandardCharsets.UTF_8));
+
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.getCompletedCount(), is(2));
+            assertThat(journal.isCompleted(2, id(2)), is(true));
+            assertThat(journal.isCompleted(3, id(3)), is(false));
+            journal.record(3, id(3), CheckpointJournal.Outcome.OK);
+        }
+
+        final List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(4));
+        assertThat(lines.get(3), is("3\t" + id(3) + "\tOK"));
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.getCompletedCount(), is(3));
+            assertThat(journal.isCompleted(3, id(3)), is(true));
+        }
+    }
+
+    @Test
+    void malformedLinesAreIgnored() throws IOException {
+        final Path path = dir.resolve("journal");
+        Files.write(path, ("1\t" + id(1) + "\tOK\n" +
+                "\n" +
+                "x\t" + id(2) + "\tOK\n" +
+                "2\t" + id(2) + "\n" +
+                "3\t" + id(3) + "\tOK\textra\n" +
+                "4\t" + id(4) + "\tOK\n").getBytes(StandardCharsets.UTF_8));
+
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.getCompletedCount(), is(2));
+            assertThat(journal.isCompleted(1, id(1)), is(true));
+            assertThat(journal.isCompleted(2, id(2)), is(false));
+            assertThat(journal.isCompleted(3, id(3)), is(false));
+            assertThat(journal.isCompleted(4, id(4)), is(true));
+        }
+    }
+
+    @Test
+    void entriesAreWrittenInBatches() throws IOException {
+        final Path path = dir.resolve("journal");
+        try (CheckpointJournal journal = CheckpointJournal.open(path, false)) {
+            for (int i = 1; i < CheckpointJournal.SYNC_BATCH_SIZE; i++) {
+                journal.record(i, id(i), CheckpointJournal.Outcome.OK);
+            }
+            assertThat(Files.size(path), is(0L));
+            journal.record(CheckpointJournal.SYNC_BATCH_SIZE, id(CheckpointJournal.SYNC_BATCH_SIZE), CheckpointJournal.Outcome.OK);
+            assertThat(Files.readAllLines(path, StandardCharsets.UTF_8).size(), is(CheckpointJournal.SYNC_BATCH_SIZE));
+            journal.record(CheckpointJournal.SYNC_BATCH_SIZE + 1, id(CheckpointJournal.SYNC_BATCH_SIZE + 1), CheckpointJournal.Outcome.OK);
+        }
+        assertThat(Files.readAllLines(path, StandardCharsets.UTF_8).size(), is(CheckpointJournal.SYNC_BATCH_SIZE + 1));
+    }
+
+    @Test
+    void resumeWithoutJournalStartsFromTheBeginning() throws IOException {
+        final Path path = dir.resolve("journal");
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.getCompletedCount(), is(0));
+            assertThat(journal.isCompleted(1, id(1)), is(false));
+            journal.record(1, id(1), CheckpointJournal.Outcome.OK);
+        }
+        try (CheckpointJournal journal = CheckpointJournal.open(path, true)) {
+            assertThat(journal.isCompleted(1, id(1)), is(true));
+        }
+    }
+
+    @Test
+    void newJournalDoesNotOverwriteAnExistingOne() throws IOException {
+        final Path path = dir.resolve("journal");
+        Files.write(path, ("1\t" + id(1) + "\tOK\n").getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(FileAlreadyExistsException.class, () -> CheckpointJournal.open(path, false));
+        assertThat(Files.readAllLines(path, StandardCharsets.UTF_8).size(), is(1));
+    }
+
+    private static RecordId id(int ordinal) {
+        return new RecordId(String.format("%08d", ordinal), "870970");
+    }
+}
@@ -0,0 +1,82 @@
+package dk.dbc.rawrepo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+
+class CircuitBreakerTest {
+    @Test
+    void opensAfterConsecutiveFailures() throws InterruptedException {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(3, 10, 0, () -> { });
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.isOpen(), is(false));
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.isOpen(), is(true));
+        assertThat(circuitBreaker.isHolding(), is(true));
+
+        circuitBreaker.awaitClosed();
+        assertThat(circuitBreaker.isOpen(), is(false));
+        assertThat(circuitBreaker.getOpenCount(), is(1));
+    }
+
+    @Test
+    void holdsUntilAProbeSucceeds() throws InterruptedException {
+        final AtomicBoolean available = new AtomicBoolean(false);
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 10, 0, () -> {
+            if (!available.get()) {
+                throw new IllegalStateException("unavailable");
+            }
+        });
+        circuitBreaker.recordFailure();
+        final Thread waiter = new Thread(() -> {
+            try {
+                circuitBreaker.awaitClosed();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertThat(waiter.isAlive(), is(true));
+
+        available.set(true);
+        waiter.join(5000);
+        assertThat(waiter.isAlive(), is(false));
+        assertThat(circuitBreaker.isOpen(), is(false));
+    }
+
+    @Test
+    void stopsHoldingAfterTheMaxOpenTime() throws InterruptedException {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 50, 300, () -> {
+            throw new IllegalStateException("unavailable");
+        });
+        circuitBreaker.recordFailure();
+        final long start = System.nanoTime();
+        circuitBreaker.awaitClosed();
+        final long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(waitedMillis, greaterThanOrEqualTo(250L));
+        assertThat(waitedMillis, lessThan(5000L));
+        assertThat(circuitBreaker.isOpen(), is(true));
+        assertThat(circuitBreaker.isHolding(), is(false));
+
+        // Calls go through now, and the first one succeeding closes the breaker
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.isHolding(), is(false));
+        circuitBreaker.recordSuccess();
+        assertThat(circuitBreaker.isOpen(), is(false));
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.isHolding(), is(true));
+        assertThat(circuitBreaker.getOpenCount(), is(2));
+    }
+}
@@ -0,0 +1,121 @@
+package dk.dbc.rawrepo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class DeduplicatorTest {
+    @Test
+    void firstKeepsTheFirstRecordOfEachId() throws IOException {
+        final BitSet duplicates = dedupe(Deduplicator.Mode.FIRST, 1024, "a", "b", "a", "c", "a", "b");
+        assertThat(duplicates, is(bits(3, 5, 6)));
+    }
+
+    @Test
+    void lastKeepsTheLastRecordOfEachId() throws IOException {
+        final BitSet duplicates = dedupe(Deduplicator.Mode.LAST, 1024, "a", "b", "a", "c", "a", "b");
+        assertThat(duplicates, is(bits(1, 2, 3)));
+    }
+
+    @Test
+    void agencyIsPartOfTheId() throws IOException {
+        try (Deduplicator deduplicator = new Deduplicator(Deduplicator.Mode.FIRST)) {
+            deduplicator.add(1, new RecordId("12345678", "870970"));
+            deduplicator.add(2, new RecordId("12345678", "710100"));
+            deduplicator.add(3, new RecordId("12345678", "870970"));
+            assertThat(deduplicator.finish(), is(bits(3)));
+            assertThat(deduplicator.getRecordCount(), is(3));
+            assertThat(deduplicator.getDuplicateCount(), is(1));
+        }
+    }
+
+    @Test
+    void recordsWithoutIdAreNeverDuplicates() throws IOException {
+        try (Deduplicator deduplicator = new Deduplicator(Deduplicator.Mode.FIRST)) {
+            deduplicator.add(1, new RecordId(RecordId.UNKNOWN, "870970"));
+            deduplicator.add(2, new RecordId(RecordId.UNKNOWN, "870970"));
+            deduplicator.add(3, new RecordId("12345678", RecordId.UNKNOWN));
+            deduplicator.add(4, new RecordId("12345678", RecordId.UNKNOWN));
+            assertThat(deduplicator.finish(), is(new BitSet()));
+            assertThat(deduplicator.getRecordCount(), is(4));
+        }
+    }
+
+    @Test
+    void spilledRunsAreMergedLikeASingleRun() throws IOException {
+        // Enough records for more runs than can be merged at once, so the runs are merged in two rounds
+        final int runSize = 16;
+        final int recordCount = runSize * (Deduplicator.MAX_MERGE_WIDTH + 10);
+        final String[] ids = new String[recordCount];
+        final Random random = new Random(42);
+        for (int i = 0; i < recordCount; i++) {
+            ids[i] = Integer.toString(random.nextInt(recordCount / 3));
+        }
+        for (Deduplicator.Mode mode : Deduplicator.Mode.values()) {
+            assertThat(mode.toString(), dedupe(mode, runSize, ids), is(expected(mode, ids)));
+        }
+    }
+
+    @Test
+    void spilledRunsAreDeleted() throws IOException {
+        final Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+        final long before = countRunFiles(tmp);
+        final String[] ids = new String[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Integer.toString(i % 7);
+        }
+        dedupe(Deduplicator.Mode.FIRST, 8, ids);
+        assertThat(countRunFiles(tmp), is(before));
+    }
+
+    private static BitSet dedupe(Deduplicator.Mode mode, int runSize, String... ids) throws IOException {
+        try (Deduplicator deduplicator = new Deduplicator(mode, runSize)) {
+            for (int i = 0; i < ids.length; i++) {
+                deduplicator.add(i + 1, new RecordId(ids[i], "870970"));
+            }
+            final BitSet duplicates = deduplicator.finish();
+            assertThat(deduplicator.getDuplicateCount(), is(duplicates.cardinality()));
+            return duplicates;
+        }
+    }
+
+    private static BitSet expected(Deduplicator.Mode mode, String[] ids) {
+        final Map<String, Integer> kept = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (mode == Deduplicator.Mode.LAST || !kept.containsKey(ids[i])) {
+                kept.put(ids[i], i + 1);
+            }
+        }
+        final BitSet duplicates = new BitSet();
+        duplicates.set(1, ids.length + 1);
+        for (int ordinal : kept.values()) {
+            duplicates.clear(ordinal);
+        }
+        return duplicates;
+    }
+
+    private static BitSet bits(int... ordinals) {
+        final BitSet bitSet = new BitSet();
+        for (int ordinal : ordinals) {
+            bitSet.set(ordinal);
+        }
+        return bitSet;
+    }
+
+    private static long countRunFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("rrupdate-dedupe-")).count();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package dk.dbc.rawrepo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class MarcFormatDeducerTest {
+    private static final int PROLOG_SIZE = 64;
+
+    @Test
+    void deducesFormats() throws IOException {
+        assertDeduced("<?xml version=\"1.0\"?><marcx:collection/>", MarcFormatDeducer.FORMAT.MARCXCHANGE);
+        assertDeduced("001 00 $a12345678$b870970\n", MarcFormatDeducer.FORMAT.LINE);
+        assertDeduced("001 00 *a12345678*b870970\n", MarcFormatDeducer.FORMAT.DANMARC2_LINE);
+        assertDeduced("00123n    2200049   4500", MarcFormatDeducer.FORMAT.ISO2709);
+        assertDeduced("", MarcFormatDeducer.FORMAT.ISO2709);
+    }
+
+    @Test
+    void readsThePrologAcrossShortReads() throws IOException {
+        // The line is only recognised once its first field is complete
+        final String input = "\n\n\n001 00 *a12345678*b870970\n";
+        final PushbackInputStream is = new PushbackInputStream(
+                new TrickleInputStream(input.getBytes(StandardCharsets.UTF_8)), PROLOG_SIZE);
+        assertThat(new MarcFormatDeducer(PROLOG_SIZE).deduce(is, StandardCharsets.UTF_8),
+                is(MarcFormatDeducer.FORMAT.DANMARC2_LINE));
+        assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8), is(input));
+    }
+
+    @Test
+    void inputShorterThanThePrologIsPushedBackWhole() throws IOException {
+        final String input = "001 00 *a1";
+        final PushbackInputStream is = new PushbackInputStream(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), PROLOG_SIZE);
+        assertThat(new MarcFormatDeducer(PROLOG_SIZE).deduce(is, StandardCharsets.UTF_8),
+                is(MarcFormatDeducer.FORMAT.DANMARC2_LINE));
+        assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8), is(input));
+    }
+
+    private static void assertDeduced(String input, MarcFormatDeducer.FORMAT format) throws IOException {
+        final PushbackInputStream is = new PushbackInputStream(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), PROLOG_SIZE);
+        assertThat(input, new MarcFormatDeducer(PROLOG_SIZE).deduce(is, StandardCharsets.UTF_8), is(format));
+        assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8), is(input));
+    }
+
+    /**
+     * Returns a single byte per read, like a slow pipe
+     */
+    private static class TrickleInputStream extends InputStream {
+        private final ByteArrayInputStream bytes;
+
+        TrickleInputStream(byte[] bytes) {
+            this.bytes = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() {
+            return bytes.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            return bytes.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.reader.MarcReaderException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+class ParallelIso2709ReaderTest {
+    private static final byte FIELD_TERMINATOR = 0x1E;
+    private static final byte RECORD_TERMINATOR = 0x1D;
+    private static final byte SUBFIELD_DELIMITER = 0x1F;
+
+    @Test
+    void recordsCutByChunksAreReadWholeInOrder() throws MarcReaderException {
+        final List<String> ids = new ArrayList<>();
+        final byte[] input = buildInput(ids);
+        assertThat(input.length, greaterThan(3 * ParallelIso2709Reader.CHUNK_SIZE));
+
+        try (ParallelIso2709Reader reader = new ParallelIso2709Reader(new ByteArrayInputStream(input), StandardCharsets.UTF_8, 3, true)) {
+            assertThat(readIds(reader), is(ids));
+            assertThat(reader.read(), is(nullValue()));
+        }
+    }
+
+    @Test
+    void unorderedReadGetsEveryRecordOnce() throws MarcReaderException {
+        final List<String> ids = new ArrayList<>();
+        final byte[] input = buildInput(ids);
+
+        try (ParallelIso2709Reader reader = new ParallelIso2709Reader(new ByteArrayInputStream(input), StandardCharsets.UTF_8, 3, false)) {
+            final List<String> read = readIds(reader);
+            Collections.sort(read);
+            Collections.sort(ids);
+            assertThat(read, is(ids));
+        }
+    }
+
+    @Test
+    void shortReadsOfTheInput() throws MarcReaderException {
+        final List<String> ids = new ArrayList<>();
+        final byte[] input = buildInput(ids);
+        // Returns a few kilobytes per read, like a pipe
+        final InputStream trickle = new ByteArrayInputStream(input) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 4093));
+            }
+        };
+
+        try (ParallelIso2709Reader reader = new ParallelIso2709Reader(trickle, StandardCharsets.UTF_8, 2, true)) {
+            assertThat(readIds(reader), is(ids));
+        }
+    }
+
+    @Test
+    void emptyInput() throws MarcReaderException {
+        try (ParallelIso2709Reader reader = new ParallelIso2709Reader(new ByteArrayInputStream(new byte[0]), StandardCharsets.UTF_8, 2, true)) {
+            assertThat(reader.read(), is(nullValue()));
+            assertThat(reader.read(), is(nullValue()));
+        }
+    }
+
+    private static List<String> readIds(ParallelIso2709Reader reader) throws MarcReaderException {
+        final List<String> ids = new ArrayList<>();
+        MarcRecord marcRecord = reader.read();
+        while (marcRecord != null) {
+            final DataField field001 = marcRecord.getField(DataField.class, MarcRecord.hasTag("001")).orElseThrow(AssertionError::new);
+            ids.add(field001.getSubFields().get(0).getData());
+            // The chunk must not have cut the record, so its last field is whole
+            final DataField field245 = marcRecord.getField(DataField.class, MarcRecord.hasTag("245")).orElseThrow(AssertionError::new);
+            assertThat(field245.getSubFields().get(0).getData().endsWith("end"), is(true));
+            marcRecord = reader.read();
+        }
+        return ids;
+    }
+
+    /**
+     * @param ids receives the 001 *a of the records in input order
+     * @return ISO2709 records of uneven sizes, so that the chunks are cut at different places
+     */
+    private static byte[] buildInput(List<String> ids) {
+        final Random random = new Random(7);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (out.size() < 3 * ParallelIso2709Reader.CHUNK_SIZE + 12345) {
+            final String id = String.format("%08d", i++);
+            ids.add(id);
+            final char[] title = new char[10 + random.nextInt(9000)];
+            Arrays.fill(title, 'x');
+            final byte[] iso = toIso2709(Arrays.asList(
+                    new String[]{"001", "00\u001fa" + id + "\u001fb870970"},
+                    new String[]{"245", "00\u001fa" + new String(title) + "end"}));
+            out.write(iso, 0, iso.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] toIso2709(List<String[]> fields) {
+        final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (String[] field : fields) {
+            final byte[] body = field[1].replace('\u001f', (char) SUBFIELD_DELIMITER).getBytes(StandardCharsets.UTF_8);
+            final String entry = field[0] + String.format("%04d%05d", body.length + 1, data.size());
+            directory.write(entry.getBytes(StandardCharsets.US_ASCII), 0, entry.length());
+            data.write(body, 0, body.length);
+            data.write(FIELD_TERMINATOR);
+        }
+        directory.write(FIELD_TERMINATOR);
+        data.write(RECORD_TERMINATOR);
+        final int baseAddress = 24 + directory.size();
+        final int length = baseAddress + data.size();
+        final String leader = String.format("%05dnam  22%05d   4500", length, baseAddress);
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(leader.getBytes(StandardCharsets.US_ASCII), 0, leader.length());
+        record.write(directory.toByteArray(), 0, directory.size());
+        record.write(data.toByteArray(), 0, data.size());
+        return record.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package dk.dbc.rawrepo;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RateScheduleTest {
+    private static final RateSchedule.Limits DEFAULT = new RateSchedule.Limits(100, 0);
+
+    // 2024-01-01 is a monday
+    private static LocalDateTime at(int dayOfJanuary, int hour, int minute) {
+        return LocalDateTime.of(2024, 1, dayOfJanuary, hour, minute);
+    }
+
+    @Test
+    void weekdayWindow() {
+        final RateSchedule schedule = RateSchedule.parse("mon-fri 08:00-17:00=20/4", DEFAULT);
+        final RateSchedule.Limits office = new RateSchedule.Limits(20, 4);
+        assertThat(schedule.getLimitsAt(at(1, 8, 0)), is(office));
+        assertThat(schedule.getLimitsAt(at(5, 16, 59)), is(office));
+        assertThat(schedule.getLimitsAt(at(1, 7, 59)), is(DEFAULT));
+        assertThat(schedule.getLimitsAt(at(1, 17, 0)), is(DEFAULT));
+        assertThat(schedule.getLimitsAt(at(6, 12, 0)), is(DEFAULT));
+    }
+
+    @Test
+    void windowWithoutDaysAndCallsInFlight() {
+        final RateSchedule schedule = RateSchedule.parse("8:30-9:00=2.5", DEFAULT);
+        final RateSchedule.Limits limits = schedule.getLimitsAt(at(7, 8, 45));
+        assertThat(limits.getRequestsPerSecond(), is(2.5));
+        assertThat(limits.getMaxInFlight(), is(0));
+        assertThat(schedule.getLimitsAt(at(7, 9, 0)), is(DEFAULT));
+    }
+
+    @Test
+    void windowPastMidnightBelongsToTheDayItStarts() {
+        final RateSchedule schedule = RateSchedule.parse("fri 22:00-06:00=0", DEFAULT);
+        assertThat(schedule.getLimitsAt(at(5, 23, 0)), is(RateSchedule.Limits.UNLIMITED));
+        assertThat(schedule.getLimitsAt(at(6, 5, 59)), is(RateSchedule.Limits.UNLIMITED));
+        assertThat(schedule.getLimitsAt(at(6, 6, 0)), is(DEFAULT));
+        assertThat(schedule.getLimitsAt(at(5, 5, 0)), is(DEFAULT));
+        assertThat(schedule.getLimitsAt(at(6, 23, 0)), is(DEFAULT));
+    }
+
+    @Test
+    void dayRangeWrapsAroundTheWeek() {
+        final RateSchedule schedule = RateSchedule.parse("SAT-Mon 00:00-00:00=5", DEFAULT);
+        final RateSchedule.Limits weekend = new RateSchedule.Limits(5, 0);
+        assertThat(schedule.getLimitsAt(at(6, 0, 0)), is(weekend));
+        assertThat(schedule.getLimitsAt(at(7, 12, 0)), is(weekend));
+        assertThat(schedule.getLimitsAt(at(8, 23, 59)), is(weekend));
+        assertThat(schedule.getLimitsAt(at(9, 12, 0)), is(DEFAULT));
+    }
+
+    @Test
+    void firstMatchingWindowApplies() {
+        final RateSchedule schedule = RateSchedule.parse("mon 10:00-11:00=1/1, 08:00-17:00=20", DEFAULT);
+        assertThat(schedule.getLimitsAt(at(1, 10, 30)), is(new RateSchedule.Limits(1, 1)));
+        assertThat(schedule.getLimitsAt(at(2, 10, 30)), is(new RateSchedule.Limits(20, 0)));
+        assertThat(schedule.isUnlimited(), is(false));
+    }
+
+    @Test
+    void emptySchedule() {
+        assertThat(RateSchedule.parse(null, DEFAULT).getLimitsAt(at(1, 12, 0)), is(DEFAULT));
+        assertThat(RateSchedule.parse(" ", RateSchedule.Limits.UNLIMITED).isUnlimited(), is(true));
+        assertThat(RateSchedule.parse("08:00-17:00=0/0", RateSchedule.Limits.UNLIMITED).isUnlimited(), is(true));
+    }
+
+    @Test
+    void invalidWindows() {
+        for (String schedule : new String[]{"08:00-17:00", "mon-fri=20", "08:00-17:00=-1", "xyz 08:00-17:00=20",
+                "08:00-25:00=20", "mon 08:00-17:00=20,,08:00-09:00=1", "08:00-17:00=20/2.5"}) {
+            assertThrows(IllegalArgumentException.class, () -> RateSchedule.parse(schedule, DEFAULT), schedule);
+        }
+    }
+}
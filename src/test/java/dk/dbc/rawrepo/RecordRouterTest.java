@@ -0,0 +1,93 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordRouterTest {
+    private static final RecordRouter.Route DEFAULT = new RecordRouter.Route("default", "default-template", null, 2000);
+
+    @Test
+    void firstMatchingRuleApplies() {
+        final RecordRouter recordRouter = RecordRouter.parse(Arrays.asList(
+                "# Common records",
+                "001b=870970            -> template=dbc provider=dataio-update priority=1000",
+                "",
+                "001b~7\\d{5}   004a=e  -> template=ffu provider=dataio-ffu priority=500",
+                "001b~7\\d{5}           -> template=ffu"), DEFAULT);
+        assertThat(recordRouter.isStatic(), is(false));
+        assertThat(recordRouter.getRoutes().size(), is(4));
+
+        final RecordRouter.Route common = recordRouter.route(record("870970", "h"));
+        assertThat(common.getName(), is("001b=870970"));
+        assertThat(common.getTemplate(), is("dbc"));
+        assertThat(common.getProvider(), is("dataio-update"));
+        assertThat(common.getPriority(), is(1000));
+
+        final RecordRouter.Route local = recordRouter.route(record("710100", "e"));
+        assertThat(local.getTemplate(), is("ffu"));
+        assertThat(local.getPriority(), is(500));
+
+        // Settings left out are taken from the default route
+        final RecordRouter.Route localHead = recordRouter.route(record("710100", "h"));
+        assertThat(localHead.getTemplate(), is("ffu"));
+        assertThat(localHead.getProvider(), is(nullValue()));
+        assertThat(localHead.getPriority(), is(2000));
+
+        assertThat(recordRouter.route(record("191919", "e")), is(sameInstance(DEFAULT)));
+    }
+
+    @Test
+    void starMatchesAllRecords() {
+        final RecordRouter recordRouter = RecordRouter.parse(Collections.singletonList("* -> priority=1000"), DEFAULT);
+        final RecordRouter.Route route = recordRouter.route(record("191919", "e"));
+        assertThat(route.getTemplate(), is("default-template"));
+        assertThat(route.getPriority(), is(1000));
+    }
+
+    @Test
+    void withoutRulesAllRecordsTakeTheDefaultRoute() {
+        final RecordRouter recordRouter = RecordRouter.parse(Arrays.asList("# nothing", "  "), DEFAULT);
+        assertThat(recordRouter.isStatic(), is(true));
+        assertThat(recordRouter.route(record("870970", "h")), is(sameInstance(DEFAULT)));
+        assertThat(recordRouter.getRoutes(), is(Collections.singletonList(DEFAULT)));
+    }
+
+    @Test
+    void invalidRulesNameTheLine() {
+        assertInvalid("001b=870970 template=dbc", "line 2: Expected 'SELECTIONS -> SETTINGS'");
+        assertInvalid("-> template=dbc", "line 2: Expected 'SELECTIONS -> SETTINGS'");
+        assertInvalid("001b=870970 ->", "line 2: Expected 'SELECTIONS -> SETTINGS'");
+        assertInvalid("001b=870970 -> template", "line 2: Expected KEY=VALUE but got 'template'");
+        assertInvalid("001b=870970 -> template=", "line 2: Expected KEY=VALUE but got 'template='");
+        assertInvalid("001b=870970 -> priority=high", "line 2: Priority must be a number but got 'high'");
+        assertInvalid("001b=870970 -> agency=870970", "line 2: Unknown setting 'agency'");
+        assertInvalid("001b -> template=dbc", "line 2: Invalid selection '001b'");
+    }
+
+    private static void assertInvalid(String rule, String message) {
+        final List<String> lines = Arrays.asList("# rules", rule);
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> RecordRouter.parse(lines, DEFAULT));
+        assertThat(e.getMessage(), e.getMessage().startsWith("Invalid routing rule in " + message), is(true));
+    }
+
+    private static MarcRecord record(String agencyId, String type) {
+        return new MarcRecord()
+                .addField(new DataField("001", "00")
+                        .addSubField(new SubField('a', "12345678"))
+                        .addSubField(new SubField('b', agencyId)))
+                .addField(new DataField("004", "00")
+                        .addSubField(new SubField('a', type)));
+    }
+}
@@ -0,0 +1,84 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.marc.binding.ControlField;
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordValidatorTest {
+    private static final MarcRecord RECORD = new MarcRecord()
+            .addField(new ControlField("005", "20240101"))
+            .addField(new DataField("001", "00")
+                    .addSubField(new SubField('a', "12345678"))
+                    .addSubField(new SubField('b', "870970")))
+            .addField(new DataField("245", "00")
+                    .addSubField(new SubField('a', "Title"))
+                    .addSubField(new SubField('a', "Other title")));
+
+    @Test
+    void equals() {
+        assertSelected("001b=870970", true);
+        assertSelected("001b=710100", false);
+        assertSelected("245a=Other title", true);
+        assertSelected("245b=Title", false);
+        assertSelected("999a=Title", false);
+        assertSelected("001a=", false);
+    }
+
+    @Test
+    void notEquals() {
+        assertSelected("001b!=710100", true);
+        assertSelected("001b!=870970", false);
+        // None of the subfields may have the value
+        assertSelected("245a!=Title", false);
+        assertSelected("999a!=Title", true);
+    }
+
+    @Test
+    void regularExpression() {
+        assertSelected("001a~\\d{8}", true);
+        assertSelected("001a~\\d{4}", false);
+        assertSelected("245a~Other.*", true);
+        assertSelected("001b~8709.*|7101.*", true);
+    }
+
+    @Test
+    void controlField() {
+        assertSelected("005=20240101", true);
+        assertSelected("005~2024.*", true);
+        assertSelected("005!=20240101", false);
+        // A data field never matches without a subfield code
+        assertSelected("001=12345678", false);
+    }
+
+    @Test
+    void reasonNamesTheSelection() {
+        assertThat(RecordValidator.parseSelection("001b=710100").check(RECORD), is("Not selected by 001b=710100"));
+    }
+
+    @Test
+    void invalidSelections() {
+        assertThrows(IllegalArgumentException.class, () -> RecordValidator.parseSelection("001b"));
+        assertThrows(IllegalArgumentException.class, () -> RecordValidator.parseSelection("01=870970"));
+        assertThrows(IllegalArgumentException.class, () -> RecordValidator.parseSelection("001bc=870970"));
+        assertThrows(IllegalArgumentException.class, () -> RecordValidator.parseSelection("001b<870970"));
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> RecordValidator.parseSelection("001b~[870970"));
+        assertThat(e.getMessage().startsWith("Invalid regular expression in selection '001b~[870970'"), is(true));
+    }
+
+    private static void assertSelected(String selection, boolean selected) {
+        final String reason = RecordValidator.parseSelection(selection).check(RECORD);
+        if (selected) {
+            assertThat(selection, reason, is(nullValue()));
+        } else {
+            assertThat(selection, reason, is("Not selected by " + selection));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dk.dbc.rawrepo;
+
+import jakarta.xml.ws.WebServiceException;
+import jakarta.xml.ws.http.HTTPException;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class RetryPolicyTest {
+    private static final RetryPolicy SAFE = new RetryPolicy(3, 10, 100);
+    private static final RetryPolicy AFTER_SEND = new RetryPolicy(3, 10, 100, true);
+
+    @Test
+    void failuresBeforeSendAreRetried() {
+        for (Throwable failure : new Throwable[]{
+                new WebServiceException(new ConnectException("Connection refused")),
+                new WebServiceException(new SocketTimeoutException("connect timed out")),
+                new HTTPException(503),
+                new HTTPException(429),
+                new WebServiceException("The server sent HTTP status code 503: Service Unavailable")}) {
+            assertThat(failure.toString(), SAFE.shouldRetry(1, failure), is(true));
+            assertThat(failure.toString(), AFTER_SEND.shouldRetry(1, failure), is(true));
+        }
+    }
+
+    @Test
+    void failuresAfterSendAreOnlyRetriedWhenAllowed() {
+        for (Throwable failure : new Throwable[]{
+                new WebServiceException(new SocketTimeoutException("Read timed out")),
+                new WebServiceException(new SocketException("Connection reset")),
+                new HTTPException(502),
+                new HTTPException(504),
+                new WebServiceException("The server sent HTTP status code 504: Gateway Timeout")}) {
+            assertThat(failure.toString(), SAFE.shouldRetry(1, failure), is(false));
+            assertThat(failure.toString(), AFTER_SEND.shouldRetry(1, failure), is(true));
+        }
+    }
+
+    @Test
+    void permanentFailuresAreNeverRetried() {
+        for (Throwable failure : new Throwable[]{
+                new HTTPException(500),
+                new HTTPException(400),
+                new IllegalStateException("Unexpected response")}) {
+            assertThat(failure.toString(), SAFE.shouldRetry(1, failure), is(false));
+            assertThat(failure.toString(), AFTER_SEND.shouldRetry(1, failure), is(false));
+        }
+    }
+
+    @Test
+    void retriesAreLimited() {
+        final HTTPException failure = new HTTPException(503);
+        assertThat(SAFE.shouldRetry(3, failure), is(true));
+        assertThat(SAFE.shouldRetry(4, failure), is(false));
+        assertThat(RetryPolicy.none().shouldRetry(1, failure), is(false));
+    }
+
+    @Test
+    void delayIsBoundedByTheBackoff() {
+        for (int i = 0; i < 1000; i++) {
+            assertThat(SAFE.getDelayMillis(1) <= 10, is(true));
+            assertThat(SAFE.getDelayMillis(3) <= 40, is(true));
+            assertThat(SAFE.getDelayMillis(30) <= 100, is(true));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.oss.ns.catalogingupdate.CatalogingUpdatePortType;
+import dk.dbc.oss.ns.catalogingupdate.GetSchemasRequest;
+import dk.dbc.oss.ns.catalogingupdate.GetSchemasResult;
+import dk.dbc.oss.ns.catalogingupdate.MessageEntry;
+import dk.dbc.oss.ns.catalogingupdate.Messages;
+import dk.dbc.oss.ns.catalogingupdate.UpdateRecordRequest;
+import dk.dbc.oss.ns.catalogingupdate.UpdateRecordResult;
+import dk.dbc.oss.ns.catalogingupdate.UpdateStatusEnum;
+import jakarta.jws.WebService;
+import jakarta.xml.ws.Endpoint;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-process updateservice stub which accepts every record.
+ * Published through the JAX-WS endpoint API, so requests take the full
+ * SOAP round trip over the loopback interface. The result of every call has a message
+ * with the tracking id and the 001 *a of the request, so a caller can tell which
+ * request a result belongs to. Shared by the tests and the benchmarks.
+ * <p>
+ * With a latency each call is held for an exponentially distributed time, so most calls
+ * are quick and a few are many times slower than the mean, like updateservice under load.
+ */
+@WebService(
+        endpointInterface = "dk.dbc.oss.ns.catalogingupdate.CatalogingUpdatePortType",
+        serviceName = "UpdateService",
+        portName = "CatalogingUpdatePort",
+        targetNamespace = "http://oss.dbc.dk/ns/catalogingUpdate",
+        wsdlLocation = "META-INF/wsdl/update/catalogingUpdate.wsdl")
+public class StubCatalogingUpdateService implements CatalogingUpdatePortType {
+    private Endpoint endpoint;
+    private String address;
+    private int meanLatencyMillis = 0;
+
+    /**
+     * @param meanLatencyMillis mean time each call is held, 0 for no delay
+     * @return this stub
+     */
+    StubCatalogingUpdateService withLatency(int meanLatencyMillis) {
+        this.meanLatencyMillis = meanLatencyMillis;
+        return this;
+    }
+
+    /**
+     * Publishes the stub on a free local port
+     * @return address of the published endpoint
+     */
+    String publish() {
+        // The JDK http server otherwise leaves Nagle's algorithm on, which adds
+        // delayed-ACK stalls to every response and hides the cost of the client
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        try (ServerSocket socket = new ServerSocket(0)) {
+            address = "http://localhost:" + socket.getLocalPort() + "/UpdateService/2.0";
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        endpoint = Endpoint.publish(address, this);
+        return address;
+    }
+
+    void stop() {
+        if (endpoint != null) {
+            endpoint.stop();
+        }
+    }
+
+    @Override
+    public UpdateRecordResult updateRecord(UpdateRecordRequest updateRecordRequest) {
+        if (meanLatencyMillis > 0) {
+            final double delay = -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanLatencyMillis;
+            try {
+                // Capped, so a single extreme draw can't dominate a whole benchmark iteration
+                Thread.sleep((long) Math.min(delay, meanLatencyMillis * 20));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final UpdateRecordResult result = new UpdateRecordResult();
+        result.setUpdateStatus(UpdateStatusEnum.OK);
+        final MessageEntry messageEntry = new MessageEntry();
+        messageEntry.setMessage(updateRecordRequest.getTrackingId() + " " + getRecordId(updateRecordRequest));
+        final Messages messages = new Messages();
+        messages.getMessageEntry().add(messageEntry);
+        result.setMessages(messages);
+        return result;
+    }
+
+    private static String getRecordId(UpdateRecordRequest updateRecordRequest) {
+        for (Object content : updateRecordRequest.getBibliographicRecord().getRecordData().getContent()) {
+            if (content instanceof Element) {
+                final NodeList dataFields = ((Element) content)
+                        .getElementsByTagNameNS(MarcXchangeDomConverter.NAMESPACE, "datafield");
+                for (int i = 0; i < dataFields.getLength(); i++) {
+                    final Element dataField = (Element) dataFields.item(i);
+                    if ("001".equals(dataField.getAttribute("tag"))) {
+                        final NodeList subFields = dataField.getElementsByTagNameNS(MarcXchangeDomConverter.NAMESPACE, "subfield");
+                        for (int j = 0; j < subFields.getLength(); j++) {
+                            final Element subField = (Element) subFields.item(j);
+                            if ("a".equals(subField.getAttribute("code"))) {
+                                return subField.getTextContent();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public GetSchemasResult getSchemas(GetSchemasRequest getSchemasRequest) {
+        final GetSchemasResult result = new GetSchemasResult();
+        result.setUpdateStatus(UpdateStatusEnum.OK);
+        return result;
+    }
+}
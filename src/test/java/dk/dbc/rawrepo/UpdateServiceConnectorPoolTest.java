@@ -0,0 +1,108 @@
+package dk.dbc.rawrepo;
+
+import dk.dbc.oss.ns.catalogingupdate.BibliographicRecord;
+import dk.dbc.oss.ns.catalogingupdate.ExtraRecordData;
+import dk.dbc.oss.ns.catalogingupdate.RecordData;
+import dk.dbc.oss.ns.catalogingupdate.UpdateRecordResult;
+import dk.dbc.oss.ns.catalogingupdate.UpdateStatusEnum;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class UpdateServiceConnectorPoolTest {
+    private static final int CONCURRENCY = 64;
+    private static final int CALLS = 4000;
+
+    // Uneven response times make the responses come back in a different order than the requests were sent
+    private static final StubCatalogingUpdateService STUB = new StubCatalogingUpdateService().withLatency(2);
+    private static String endpoint;
+
+    @BeforeAll
+    static void publishStub() {
+        endpoint = STUB.publish();
+    }
+
+    @AfterAll
+    static void stopStub() {
+        STUB.stop();
+    }
+
+    @Test
+    void everyResponseBelongsToItsRequest() throws Exception {
+        final UpdateServiceConnectorPool connectorPool =
+                new UpdateServiceConnectorPool(CONCURRENCY, endpoint, "netpunkt", "not-used", true);
+        final Set<UpdateServiceConnector> inUse = ConcurrentHashMap.newKeySet();
+        final List<String> mismatches = Collections.synchronizedList(new ArrayList<>());
+        final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        try {
+            final List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < CALLS; i++) {
+                final String recordId = String.format("%08d", i);
+                final String trackingId = "tracking-" + i;
+                calls.add(executor.submit(() -> {
+                    final BibliographicRecord bibliographicRecord = buildRecord(recordId);
+                    final UpdateServiceConnector connector = connectorPool.take();
+                    try {
+                        if (!inUse.add(connector)) {
+                            mismatches.add("Connector handed out twice for " + trackingId);
+                        }
+                        final UpdateRecordResult result = connector.updateRecord("010100", "dbc", bibliographicRecord, trackingId);
+                        final String expected = trackingId + " " + recordId;
+                        final String actual = result.getUpdateStatus() == UpdateStatusEnum.OK
+                                ? result.getMessages().getMessageEntry().get(0).getMessage()
+                                : result.getUpdateStatus().toString();
+                        if (!expected.equals(actual)) {
+                            mismatches.add("Expected '" + expected + "' but got '" + actual + "'");
+                        }
+                    } finally {
+                        inUse.remove(connector);
+                        connectorPool.release(connector);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(String.join("\n", mismatches), mismatches.size(), is(0));
+    }
+
+    private static BibliographicRecord buildRecord(String recordId) {
+        final String marcXchange = "<marcx:record xmlns:marcx=\"" + MarcXchangeDomConverter.NAMESPACE + "\" format=\"danMARC2\" type=\"Bibliographic\">" +
+                "<marcx:leader>00000n    2200000   4500</marcx:leader>" +
+                "<marcx:datafield ind1=\"0\" ind2=\"0\" tag=\"001\">" +
+                "<marcx:subfield code=\"a\">" + recordId + "</marcx:subfield>" +
+                "<marcx:subfield code=\"b\">870970</marcx:subfield>" +
+                "</marcx:datafield>" +
+                "<marcx:datafield ind1=\"0\" ind2=\"0\" tag=\"245\">" +
+                "<marcx:subfield code=\"a\">Title of " + recordId + "</marcx:subfield>" +
+                "</marcx:datafield>" +
+                "</marcx:record>";
+        final RecordData recordData = new RecordData();
+        recordData.getContent().add(new MarcXchangeDomConverter()
+                .parse(marcXchange.getBytes(StandardCharsets.UTF_8)).getDocumentElement());
+        final BibliographicRecord bibliographicRecord = new BibliographicRecord();
+        bibliographicRecord.setRecordSchema("info:lc/xmlns/marcxchange-v1");
+        bibliographicRecord.setRecordPacking("xml");
+        bibliographicRecord.setRecordData(recordData);
+        bibliographicRecord.setExtraRecordData(new ExtraRecordData());
+        return bibliographicRecord;
+    }
+}
@@ -0,0 +1,119 @@
+package dk.dbc.rawrepo.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class LatencyHistogramTest {
+    @Test
+    void smallValuesHaveABucketEach() {
+        for (int value = 0; value < 64; value++) {
+            assertThat(LatencyHistogram.bucketIndex(value), is(value));
+            assertThat(LatencyHistogram.highestValueInBucket(value), is((long) value));
+        }
+    }
+
+    @Test
+    void bucketsAreContiguous() {
+        int previous = LatencyHistogram.bucketIndex(0);
+        for (long value = 1; value <= 1 << 20; value++) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertThat("value " + value, index - previous, lessThanOrEqualTo(1));
+            assertThat("value " + value, index, greaterThanOrEqualTo(previous));
+            previous = index;
+        }
+    }
+
+    @Test
+    void everyValueFallsInsideItsBucket() {
+        for (long value : sampleValues()) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertThat("value " + value, LatencyHistogram.highestValueInBucket(index), greaterThanOrEqualTo(value));
+            if (index > 0) {
+                assertThat("value " + value, LatencyHistogram.highestValueInBucket(index - 1), lessThan(value));
+            }
+        }
+    }
+
+    @Test
+    void relativeErrorIsAtMostAboutThreePercent() {
+        for (long value : sampleValues()) {
+            if (value < 64) {
+                continue;
+            }
+            final long reported = LatencyHistogram.highestValueInBucket(LatencyHistogram.bucketIndex(value));
+            assertThat("value " + value, (double) (reported - value) / value, lessThanOrEqualTo(1.0 / 32));
+        }
+    }
+
+    @Test
+    void extremeValuesAreRecorded() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), is(2L));
+        assertThat(snapshot.getMax(), is(Long.MAX_VALUE));
+        assertThat(snapshot.getValueAtPercentile(50), is(0L));
+    }
+
+    @Test
+    void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), is(1000L));
+        assertWithinBucketError(snapshot.getValueAtPercentile(50), TimeUnit.MILLISECONDS.toNanos(500));
+        assertWithinBucketError(snapshot.getValueAtPercentile(99), TimeUnit.MILLISECONDS.toNanos(990));
+        assertWithinBucketError(snapshot.getValueAtPercentile(100), TimeUnit.MILLISECONDS.toNanos(1000));
+        assertWithinBucketError(snapshot.getMax(), TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(new LatencyHistogram().snapshot().getValueAtPercentile(99), is(0L));
+    }
+
+    @Test
+    void sinceHoldsOnlyTheLaterValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(200);
+        final LatencyHistogram.Snapshot earlier = histogram.snapshot();
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+
+        final LatencyHistogram.Snapshot since = histogram.snapshot().since(earlier);
+        assertThat(since.getCount(), is(1L));
+        assertThat(since.getSum(), is(TimeUnit.SECONDS.toNanos(1)));
+        assertWithinBucketError(since.getValueAtPercentile(1), TimeUnit.SECONDS.toNanos(1));
+        assertThat(earlier.getCount(), is(2L));
+        assertThat(earlier.getSum(), is(300L));
+    }
+
+    private static void assertWithinBucketError(long actual, long expected) {
+        assertThat(actual, greaterThanOrEqualTo(expected));
+        assertThat(actual, lessThanOrEqualTo(expected + expected / 32));
+    }
+
+    private static List<Long> sampleValues() {
+        final List<Long> values = new ArrayList<>();
+        for (long value = 0; value < 4096; value++) {
+            values.add(value);
+        }
+        for (int bit = 12; bit < 63; bit++) {
+            final long power = 1L << bit;
+            values.add(power - 1);
+            values.add(power);
+            values.add(power + 1);
+            values.add(power + power / 3);
+        }
+        values.add(Long.MAX_VALUE);
+        return values;
+    }
+}